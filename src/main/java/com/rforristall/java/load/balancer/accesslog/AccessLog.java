@@ -0,0 +1,149 @@
+package com.rforristall.java.load.balancer.accesslog;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rforristall.java.load.balancer.metrics.RequestTiming;
+
+/**
+ * Asynchronous access log. Request threads copy each record into a pre-allocated ring buffer and return straight
+ * away, a single writer thread formats the records in batches and appends them to the log file, so request
+ * threads never contend on a lock or wait on disk I/O.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class AccessLog {
+  
+  private static final Logger LOGGER = LoggerFactory.getLogger(AccessLog.class);
+  
+  /**
+   * Maximum number of records formatted before the buffered output is written to the file
+   */
+  private static final int MAX_BATCH_SIZE = 4096;
+  
+  /**
+   * How long the writer thread parks when there are no records to consume
+   */
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  
+  private final AccessLogRingBuffer ringBuffer;
+  private final AccessLogFileWriter fileWriter;
+  private final Thread writerThread;
+  private final StringBuilder line = new StringBuilder(256);
+  private volatile boolean running = false;
+  
+  /**
+   * @param path file the access log is written to
+   * @param bufferSize number of records the ring buffer holds, rounded up to a power of two
+   * @param fullPolicy {@link AccessLogFullPolicy} applied when the ring buffer is full
+   * @param maxFileSize size in bytes after which the file is rotated
+   * @param maxFiles number of rotated files to keep
+   * @throws IOException if the log file cannot be opened
+   */
+  public AccessLog(Path path, int bufferSize, AccessLogFullPolicy fullPolicy, long maxFileSize, int maxFiles) throws IOException {
+    this.ringBuffer = new AccessLogRingBuffer(bufferSize, fullPolicy);
+    this.fileWriter = new AccessLogFileWriter(path, maxFileSize, maxFiles);
+    this.writerThread = new Thread(this::consume, "AccessLogWriter");
+    this.writerThread.setDaemon(true);
+  }
+  
+  public void start() {
+    running = true;
+    writerThread.start();
+  }
+  
+  /**
+   * Stop accepting records and wait for the writer thread to write out everything already published
+   */
+  public void stop() {
+    ringBuffer.close();
+    running = false;
+    LockSupport.unpark(writerThread);
+    try {
+      writerThread.join(TimeUnit.SECONDS.toMillis(10));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+  
+  /**
+   * Publish a served request to the access log
+   * @param clientAddress address of the client that sent the request
+   * @param method request method
+   * @param path request path and query
+   * @param backend URL of the backend that served the request, null if none did
+   * @param status status code sent to the client
+   * @param timing {@link RequestTiming} of the request
+   * @return true if the record was accepted, false if it was dropped because the buffer was full
+   */
+  public boolean log(String clientAddress, String method, String path, String backend, int status, RequestTiming timing) {
+    return ringBuffer.publish(System.currentTimeMillis(), clientAddress, method, path, backend, status, timing);
+  }
+  
+  /**
+   * Get the number of records that were dropped because the ring buffer was full
+   * @return number of dropped records
+   */
+  public long getDroppedRecords() {
+    return ringBuffer.getDropped();
+  }
+  
+  private void consume() {
+    while (running || !ringBuffer.isDrained()) {
+      int batch = 0;
+      AccessLogEntry entry;
+      try {
+        while (batch < MAX_BATCH_SIZE && (entry = ringBuffer.peek()) != null) {
+          format(entry);
+          ringBuffer.advance();
+          fileWriter.append(line);
+          batch++;
+        }
+        if (batch > 0) {
+          fileWriter.flush();
+        }
+      } catch (IOException ex) {
+        LOGGER.error("Failed to write access log", ex);
+      }
+      if (batch == 0) {
+        LockSupport.parkNanos(IDLE_PARK_NANOS);
+      }
+    }
+    try {
+      fileWriter.close();
+    } catch (IOException ex) {
+      LOGGER.error("Failed to close access log", ex);
+    }
+  }
+  
+  /**
+   * Format an entry as a single line: timestamp, client, request line, status, request and response bytes, backend
+   * and the per phase latencies in microseconds
+   */
+  private void format(AccessLogEntry entry) {
+    line.setLength(0);
+    DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(entry.timestampMillis), line);
+    line.append(' ').append(entry.clientAddress)
+        .append(" \"").append(entry.method).append(' ').append(entry.path).append("\" ")
+        .append(entry.status)
+        .append(" req=").append(entry.requestBytes)
+        .append(" resp=").append(entry.responseBytes)
+        .append(" backend=").append(entry.backend != null ? entry.backend : "-")
+        .append(" total_us=").append(entry.totalNanos / 1000)
+        .append(" select_us=").append(entry.selectionNanos / 1000)
+        .append(" queue_us=").append(entry.queueWaitNanos / 1000)
+        .append(" read_us=").append(entry.bodyReadNanos / 1000)
+        .append(" ttfb_us=").append(entry.upstreamHeadersNanos / 1000)
+        .append(" upstream_body_us=").append(entry.upstreamBodyNanos / 1000)
+        .append(" write_us=").append(entry.clientWriteNanos / 1000)
+        .append('\n');
+  }
+
+}
@@ -0,0 +1,33 @@
+package com.rforristall.java.load.balancer.accesslog;
+
+/**
+ * Pre-allocated slot of the access log ring buffer. Producers overwrite the fields in place and then publish the
+ * slot by writing its sequence, so logging a request does not allocate.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+final class AccessLogEntry {
+  
+  /**
+   * Sequence of the record currently held by the slot, written last by the producer so that the consumer only
+   * reads the other fields once they are complete
+   */
+  volatile long sequence = -1;
+  
+  long timestampMillis;
+  String clientAddress;
+  String method;
+  String path;
+  String backend;
+  int status;
+  long requestBytes;
+  long responseBytes;
+  long totalNanos;
+  long selectionNanos;
+  long queueWaitNanos;
+  long bodyReadNanos;
+  long upstreamHeadersNanos;
+  long upstreamBodyNanos;
+  long clientWriteNanos;
+
+}
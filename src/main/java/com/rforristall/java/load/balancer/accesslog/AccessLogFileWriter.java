@@ -0,0 +1,114 @@
+package com.rforristall.java.load.balancer.accesslog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends formatted access log lines to a file through a large direct buffer, rotating the file once it reaches
+ * its maximum size. Only used from the access log consumer thread.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+final class AccessLogFileWriter implements Closeable {
+  
+  private static final int BUFFER_SIZE = 256 * 1024;
+  
+  private final Path path;
+  private final long maxFileSize;
+  private final int maxFiles;
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+  private FileChannel channel;
+  private long fileSize;
+  
+  /**
+   * @param path file the access log is written to
+   * @param maxFileSize size in bytes after which the file is rotated
+   * @param maxFiles number of rotated files kept next to the active one, named with a numeric suffix
+   */
+  AccessLogFileWriter(Path path, long maxFileSize, int maxFiles) throws IOException {
+    this.path = path;
+    this.maxFileSize = maxFileSize;
+    this.maxFiles = maxFiles;
+    Path parent = path.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    open();
+  }
+  
+  /**
+   * Encode a line into the buffer, writing the buffer out whenever it fills up
+   */
+  void append(CharSequence line) throws IOException {
+    CharBuffer chars = CharBuffer.wrap(line);
+    while (true) {
+      CoderResult result = encoder.encode(chars, buffer, true);
+      if (!result.isOverflow()) {
+        break;
+      }
+      flush();
+    }
+    encoder.reset();
+  }
+  
+  /**
+   * Write out everything buffered so far and rotate the file if it has grown past its maximum size
+   */
+  void flush() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      fileSize += channel.write(buffer);
+    }
+    buffer.clear();
+    if (fileSize >= maxFileSize) {
+      rotate();
+    }
+  }
+  
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      channel.close();
+    }
+  }
+  
+  private void open() throws IOException {
+    channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    fileSize = channel.size();
+  }
+  
+  private void rotate() throws IOException {
+    channel.close();
+    if (maxFiles > 0) {
+      Files.deleteIfExists(rotatedPath(maxFiles));
+      for (int i = maxFiles - 1; i >= 1; i--) {
+        Path rotated = rotatedPath(i);
+        if (Files.exists(rotated)) {
+          Files.move(rotated, rotatedPath(i + 1), StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+      Files.move(path, rotatedPath(1), StandardCopyOption.REPLACE_EXISTING);
+    } else {
+      Files.deleteIfExists(path);
+    }
+    open();
+  }
+  
+  private Path rotatedPath(int index) {
+    return path.resolveSibling(path.getFileName() + "." + index);
+  }
+
+}
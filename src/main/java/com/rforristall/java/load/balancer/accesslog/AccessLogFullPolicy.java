@@ -0,0 +1,23 @@
+package com.rforristall.java.load.balancer.accesslog;
+
+/**
+ * What a request thread does when the access log ring buffer has no free slot
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public enum AccessLogFullPolicy {
+  
+  DROP("Drop"),
+  BLOCK("Block");
+  
+  private String name;
+  
+  private AccessLogFullPolicy(String name) {
+    this.name = name;
+  }
+  
+  public String getName() {
+    return name;
+  }
+
+}
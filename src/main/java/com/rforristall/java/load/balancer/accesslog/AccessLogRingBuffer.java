@@ -0,0 +1,141 @@
+package com.rforristall.java.load.balancer.accesslog;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.rforristall.java.load.balancer.metrics.RequestTiming;
+
+/**
+ * Bounded multi-producer, single-consumer ring of {@link AccessLogEntry} slots. Producers claim a sequence with a
+ * CAS, fill the slot and publish it, the single consumer reads slots strictly in sequence order.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+final class AccessLogRingBuffer {
+  
+  /**
+   * How long a producer parks between attempts to claim a slot under {@link AccessLogFullPolicy#BLOCK}
+   */
+  private static final long BLOCK_PARK_NANOS = 50_000;
+  
+  private final AccessLogEntry[] entries;
+  private final int mask;
+  private final AccessLogFullPolicy fullPolicy;
+  
+  /**
+   * Next sequence a producer will claim
+   */
+  private final AtomicLong claimSequence = new AtomicLong(0);
+  
+  /**
+   * Next sequence the consumer will read, every slot below it is free to be reused
+   */
+  private volatile long consumerSequence = 0;
+  
+  private final LongAdder dropped = new LongAdder();
+  private volatile boolean closed = false;
+  
+  /**
+   * @param capacity number of slots, rounded up to a power of two
+   * @param fullPolicy {@link AccessLogFullPolicy} applied when every slot is in use
+   */
+  AccessLogRingBuffer(int capacity, AccessLogFullPolicy fullPolicy) {
+    int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+    this.entries = new AccessLogEntry[size];
+    for (int i = 0; i < size; i++) {
+      entries[i] = new AccessLogEntry();
+    }
+    this.mask = size - 1;
+    this.fullPolicy = fullPolicy;
+  }
+  
+  /**
+   * Copy a request into the next free slot
+   * @return true if the record was published, false if it was dropped
+   */
+  boolean publish(long timestampMillis, String clientAddress, String method, String path, String backend, int status, RequestTiming timing) {
+    long sequence;
+    while (true) {
+      if (closed) {
+        dropped.increment();
+        return false;
+      }
+      sequence = claimSequence.get();
+      if (sequence - consumerSequence >= entries.length) {
+        if (fullPolicy == AccessLogFullPolicy.DROP) {
+          dropped.increment();
+          return false;
+        }
+        LockSupport.parkNanos(BLOCK_PARK_NANOS);
+        continue;
+      }
+      if (claimSequence.compareAndSet(sequence, sequence + 1)) {
+        break;
+      }
+    }
+    AccessLogEntry entry = entries[(int) sequence & mask];
+    entry.timestampMillis = timestampMillis;
+    entry.clientAddress = clientAddress;
+    entry.method = method;
+    entry.path = path;
+    entry.backend = backend;
+    entry.status = status;
+    entry.requestBytes = timing.getRequestBytes();
+    entry.responseBytes = timing.getResponseBytes();
+    entry.totalNanos = timing.getElapsedNanos();
+    entry.selectionNanos = timing.getSelectionNanos();
+    entry.queueWaitNanos = timing.getQueueWaitNanos();
+    entry.bodyReadNanos = timing.getBodyReadNanos();
+    entry.upstreamHeadersNanos = timing.getUpstreamHeadersNanos();
+    entry.upstreamBodyNanos = timing.getUpstreamBodyNanos();
+    entry.clientWriteNanos = timing.getClientWriteNanos();
+    entry.sequence = sequence;
+    return true;
+  }
+  
+  /**
+   * Get the next published entry without consuming it, only called from the consumer thread
+   * @return the next {@link AccessLogEntry} or null if it has not been published yet
+   */
+  AccessLogEntry peek() {
+    long next = consumerSequence;
+    AccessLogEntry entry = entries[(int) next & mask];
+    return entry.sequence == next ? entry : null;
+  }
+  
+  /**
+   * Release the entry returned by {@link #peek()} back to the producers, only called from the consumer thread
+   */
+  void advance() {
+    AccessLogEntry entry = entries[(int) consumerSequence & mask];
+    entry.clientAddress = null;
+    entry.method = null;
+    entry.path = null;
+    entry.backend = null;
+    consumerSequence = consumerSequence + 1;
+  }
+  
+  /**
+   * Stop accepting records, records already claimed are still published and consumed
+   */
+  void close() {
+    closed = true;
+  }
+  
+  /**
+   * Check if every claimed sequence has been consumed
+   */
+  boolean isDrained() {
+    return consumerSequence == claimSequence.get();
+  }
+  
+  long getDropped() {
+    return dropped.sum();
+  }
+  
+  int getCapacity() {
+    return entries.length;
+  }
+
+}
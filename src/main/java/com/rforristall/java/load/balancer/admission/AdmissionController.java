@@ -0,0 +1,343 @@
+package com.rforristall.java.load.balancer.admission;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.rforristall.java.load.balancer.backend.Backend;
+import com.rforristall.java.load.balancer.routing.RequestPath;
+import com.rforristall.java.load.balancer.strategy.BalancingStrategy;
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Admits requests to backends by priority class. A request is given a backend at once when nothing is queued
+ * and a healthy backend has capacity, otherwise it waits in the bounded queue of its class until capacity frees
+ * up or its deadline passes. Released capacity is handed to the queued requests in the order chosen by the
+ * {@link PriorityScheduling}, so latency critical classes keep moving while batch classes absorb the delay.
+ * <p>
+ * Capacity is the per backend connection limit, counted here for the requests this controller admitted. Without
+ * a limit requests only queue while no backend is healthy. A retry of an admitted request takes its capacity
+ * through {@link #reserveBackend(List)} without queueing, so retries stay within the limit as well.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class AdmissionController {
+
+  /**
+   * How often queued requests are offered capacity that was not freed by a request finishing, for example
+   * when a backend becomes healthy again
+   */
+  private static final long DISPATCH_INTERVAL_MS = 20;
+
+  private final List<PriorityClass> priorityClasses;
+  private final List<PriorityRule> rules;
+  private final int[] ruleClasses;
+  private final PriorityScheduling scheduling;
+  private final BalancingStrategy balancingStrategy;
+  private final List<Backend> backends;
+  private final int maxConnectionsPerBackend;
+  private final ScheduledExecutorService dispatcher;
+
+  /**
+   * Guards the queues, the scheduling state and the admitted connection counts. A ReentrantLock is used so
+   * virtual threads do not pin their carrier thread while holding it
+   */
+  private final ReentrantLock lock = new ReentrantLock();
+  private final List<ArrayDeque<Waiter>> queues;
+  private final Map<Backend, int[]> admittedConnections = new IdentityHashMap<>();
+  private int queuedRequests = 0;
+
+  /**
+   * Virtual finish time of each class for weighted fair scheduling, the class with the lowest value is served next
+   */
+  private final double[] passes;
+  private double virtualTime = 0;
+
+  private final AtomicLong[] queued;
+  private final AtomicLong[] rejected;
+  private final AtomicLong[] timedOut;
+
+  /**
+   * @param priorityClasses {@link List}<{@link PriorityClass}> ordered from highest to lowest priority, requests no rule matches belong to the last one
+   * @param rules {@link List}<{@link PriorityRule}> evaluated in order to classify requests
+   * @param scheduling {@link PriorityScheduling} used to release queued requests
+   * @param balancingStrategy {@link BalancingStrategy} that picks the backend for admitted requests
+   * @param backends {@link List}<{@link Backend}> the strategy chooses from
+   * @param maxConnectionsPerBackend connections each backend may serve at once, 0 for no limit
+   * @throws IllegalArgumentException if a rule names a class that does not exist
+   */
+  public AdmissionController(List<PriorityClass> priorityClasses, List<PriorityRule> rules, PriorityScheduling scheduling,
+      BalancingStrategy balancingStrategy, List<Backend> backends, int maxConnectionsPerBackend) {
+    this.priorityClasses = priorityClasses;
+    this.rules = rules;
+    this.scheduling = scheduling;
+    this.balancingStrategy = balancingStrategy;
+    this.backends = backends;
+    this.maxConnectionsPerBackend = maxConnectionsPerBackend;
+    this.ruleClasses = new int[rules.size()];
+    for (int i = 0; i < rules.size(); i++) {
+      ruleClasses[i] = indexOf(rules.get(i).getPriorityClass());
+    }
+    int classCount = priorityClasses.size();
+    this.queues = new ArrayList<>(classCount);
+    this.passes = new double[classCount];
+    this.queued = new AtomicLong[classCount];
+    this.rejected = new AtomicLong[classCount];
+    this.timedOut = new AtomicLong[classCount];
+    for (int i = 0; i < classCount; i++) {
+      queues.add(new ArrayDeque<>());
+      queued[i] = new AtomicLong(0);
+      rejected[i] = new AtomicLong(0);
+      timedOut[i] = new AtomicLong(0);
+    }
+    for (Backend backend : backends) {
+      admittedConnections.put(backend, new int[1]);
+    }
+    this.dispatcher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "AdmissionDispatcher");
+        t.setDaemon(true);
+        return t;
+    });
+  }
+
+  public void start() {
+    dispatcher.scheduleAtFixedRate(this::dispatchIfQueued, DISPATCH_INTERVAL_MS, DISPATCH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+  }
+
+  public void stop() {
+    dispatcher.shutdown();
+    try {
+      if (!dispatcher.awaitTermination(10, TimeUnit.SECONDS)) {
+          dispatcher.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+        dispatcher.shutdownNow();
+    }
+  }
+
+  /**
+   * Find the priority class of a request
+   * @param exchange {@link HttpExchange} of the request
+   * @return index of the {@link PriorityClass} the request belongs to
+   */
+  public int classify(HttpExchange exchange) {
+    String method = exchange.getRequestMethod();
+    String path = RequestPath.canonicalize(exchange.getRequestURI().getRawPath());
+    for (int i = 0; i < rules.size(); i++) {
+      if (rules.get(i).matches(method, path, exchange.getRequestHeaders())) {
+        return ruleClasses[i];
+      }
+    }
+    return priorityClasses.size() - 1;
+  }
+
+  public PriorityClass getPriorityClass(int classIndex) {
+    return priorityClasses.get(classIndex);
+  }
+
+  /**
+   * Get a backend for a request, waiting in the queue of its class when none has capacity. Every backend
+   * returned must be handed back to {@link #release(Backend)} once the request is done with it.
+   * @param classIndex index of the {@link PriorityClass} from {@link #classify(HttpExchange)}
+   * @return {@link Backend} admitted to serve the request, null if the queue was full or the deadline passed
+   */
+  public Backend acquire(int classIndex) {
+    PriorityClass priorityClass = priorityClasses.get(classIndex);
+    Waiter waiter;
+    lock.lock();
+    try {
+      if (queuedRequests == 0) {
+        Backend backend = reserve(Collections.emptyList());
+        if (backend != null) {
+          return backend;
+        }
+      }
+      ArrayDeque<Waiter> queue = queues.get(classIndex);
+      if (queue.size() >= priorityClass.getQueueCapacity()) {
+        rejected[classIndex].incrementAndGet();
+        return null;
+      }
+      if (queue.isEmpty()) {
+        // A class that was idle does not get to spend the turns it missed
+        passes[classIndex] = Math.max(passes[classIndex], virtualTime);
+      }
+      waiter = new Waiter(Thread.currentThread(), System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(priorityClass.getMaxWaitMs()));
+      queue.add(waiter);
+      queuedRequests++;
+      queued[classIndex].incrementAndGet();
+      dispatch();
+    } finally {
+      lock.unlock();
+    }
+
+    long remaining;
+    while (waiter.backend == null && (remaining = waiter.deadlineNanos - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted()) {
+      LockSupport.parkNanos(this, remaining);
+    }
+
+    lock.lock();
+    try {
+      if (waiter.backend == null && queues.get(classIndex).remove(waiter)) {
+        queuedRequests--;
+        timedOut[classIndex].incrementAndGet();
+      }
+      return waiter.backend;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get a backend below the connection limit for a retry without queueing, a request that has already waited for
+   * its first attempt is not sent to the back of the queue. Every backend returned must be handed back to
+   * {@link #release(Backend)} once the request is done with it.
+   * @param excludedBackends {@link List}<{@link Backend}> already tried for the request
+   * @return {@link Backend} admitted to serve the retry, null if every other backend is at the limit or unhealthy
+   */
+  public Backend reserveBackend(List<Backend> excludedBackends) {
+    lock.lock();
+    try {
+      return reserve(excludedBackends);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Return the capacity taken by {@link #acquire(int)} or {@link #reserveBackend(List)} and hand it to the next queued request
+   * @param backend {@link Backend} that was admitted
+   */
+  public void release(Backend backend) {
+    lock.lock();
+    try {
+      int[] admitted = admittedConnections.get(backend);
+      if (admitted != null) {
+        admitted[0]--;
+      }
+      dispatch();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void dispatchIfQueued() {
+    lock.lock();
+    try {
+      dispatch();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Hand free capacity to queued requests until either runs out, called while holding the lock
+   */
+  private void dispatch() {
+    while (queuedRequests > 0) {
+      int classIndex = nextClass();
+      Backend backend = reserve(Collections.emptyList());
+      if (backend == null) {
+        return;
+      }
+      Waiter waiter = queues.get(classIndex).poll();
+      queuedRequests--;
+      passes[classIndex] += 1.0 / priorityClasses.get(classIndex).getWeight();
+      virtualTime = passes[classIndex];
+      waiter.backend = backend;
+      LockSupport.unpark(waiter.thread);
+    }
+  }
+
+  /**
+   * Pick the class whose queued request is released next, called while holding the lock with at least one request queued
+   */
+  private int nextClass() {
+    int next = -1;
+    for (int i = 0; i < queues.size(); i++) {
+      if (queues.get(i).isEmpty()) {
+        continue;
+      }
+      if (scheduling == PriorityScheduling.STRICT) {
+        return i;
+      }
+      if (next == -1 || passes[i] < passes[next]) {
+        next = i;
+      }
+    }
+    return next;
+  }
+
+  /**
+   * Ask the strategy for a backend among those not excluded and below the connection limit and count it, called while holding the lock
+   */
+  private Backend reserve(List<Backend> excludedBackends) {
+    Backend backend;
+    if (maxConnectionsPerBackend > 0) {
+      List<Backend> full = new ArrayList<>();
+      for (Backend candidate : backends) {
+        if (excludedBackends.contains(candidate) || admittedConnections.get(candidate)[0] >= maxConnectionsPerBackend) {
+          full.add(candidate);
+        }
+      }
+      if (full.size() == backends.size()) {
+        return null;
+      }
+      backend = full.isEmpty() ? balancingStrategy.selectBackend() : balancingStrategy.selectBackend(full);
+    } else {
+      backend = excludedBackends.isEmpty() ? balancingStrategy.selectBackend() : balancingStrategy.selectBackend(excludedBackends);
+    }
+    if (backend != null) {
+      admittedConnections.get(backend)[0]++;
+    }
+    return backend;
+  }
+
+  private int indexOf(String className) {
+    for (int i = 0; i < priorityClasses.size(); i++) {
+      if (priorityClasses.get(i).getName().equals(className)) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("Unknown priority class " + className);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder summary = new StringBuilder(scheduling.getName());
+    for (int i = 0; i < priorityClasses.size(); i++) {
+      summary.append(i == 0 ? ": " : "; ")
+          .append(priorityClasses.get(i).getName())
+          .append(" queued ").append(queued[i].get())
+          .append(", rejected ").append(rejected[i].get())
+          .append(", timed out ").append(timedOut[i].get());
+    }
+    return summary.toString();
+  }
+
+  private static final class Waiter {
+
+    private final Thread thread;
+    private final long deadlineNanos;
+
+    /**
+     * Backend handed over by the dispatcher, written while holding the lock and read by the parked request thread
+     */
+    private volatile Backend backend;
+
+    private Waiter(Thread thread, long deadlineNanos) {
+      this.thread = thread;
+      this.deadlineNanos = deadlineNanos;
+    }
+
+  }
+
+}
@@ -0,0 +1,50 @@
+package com.rforristall.java.load.balancer.admission;
+
+/**
+ * Class of requests that share a wait queue when every backend is busy or unavailable
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class PriorityClass {
+  
+  private final String name;
+  
+  /**
+   * Share of released capacity the class gets under {@link PriorityScheduling#WEIGHTED_FAIR}
+   */
+  private final int weight;
+  
+  /**
+   * Number of requests that may wait in the queue, requests arriving at a full queue are rejected at once
+   */
+  private final int queueCapacity;
+  
+  /**
+   * Longest time in milliseconds a request waits for a backend before it is rejected
+   */
+  private final int maxWaitMs;
+  
+  public PriorityClass(String name, int weight, int queueCapacity, int maxWaitMs) {
+    this.name = name;
+    this.weight = weight;
+    this.queueCapacity = queueCapacity;
+    this.maxWaitMs = maxWaitMs;
+  }
+  
+  public String getName() {
+    return name;
+  }
+  
+  public int getWeight() {
+    return weight;
+  }
+  
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+  
+  public int getMaxWaitMs() {
+    return maxWaitMs;
+  }
+
+}
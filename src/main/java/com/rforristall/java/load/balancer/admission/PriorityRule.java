@@ -0,0 +1,86 @@
+package com.rforristall.java.load.balancer.admission;
+
+import com.sun.net.httpserver.Headers;
+
+/**
+ * Rule assigning matching requests to a {@link PriorityClass}, rules are evaluated in order and the first match wins
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class PriorityRule {
+  
+  private enum MatchType {
+    PATH_PREFIX,
+    HEADER,
+    METHOD
+  }
+  
+  private final MatchType matchType;
+  private final String name;
+  private final String value;
+  private final String priorityClass;
+  
+  private PriorityRule(MatchType matchType, String name, String value, String priorityClass) {
+    this.matchType = matchType;
+    this.name = name;
+    this.value = value;
+    this.priorityClass = priorityClass;
+  }
+  
+  /**
+   * Match requests whose path starts with the prefix
+   * @param prefix path prefix, for example /api/checkout
+   * @param priorityClass name of the {@link PriorityClass} matching requests are assigned to
+   * @return new {@link PriorityRule}
+   */
+  public static PriorityRule pathPrefix(String prefix, String priorityClass) {
+    return new PriorityRule(MatchType.PATH_PREFIX, null, prefix, priorityClass);
+  }
+  
+  /**
+   * Match requests carrying a header
+   * @param header header name, matched case insensitively
+   * @param value value the header must have, null to match any value
+   * @param priorityClass name of the {@link PriorityClass} matching requests are assigned to
+   * @return new {@link PriorityRule}
+   */
+  public static PriorityRule header(String header, String value, String priorityClass) {
+    return new PriorityRule(MatchType.HEADER, header, value, priorityClass);
+  }
+  
+  /**
+   * Match requests by method
+   * @param method request method, matched case insensitively
+   * @param priorityClass name of the {@link PriorityClass} matching requests are assigned to
+   * @return new {@link PriorityRule}
+   */
+  public static PriorityRule method(String method, String priorityClass) {
+    return new PriorityRule(MatchType.METHOD, null, method, priorityClass);
+  }
+  
+  public String getPriorityClass() {
+    return priorityClass;
+  }
+  
+  /**
+   * Check if the request matches the rule
+   * @param method request method
+   * @param path request path without the query
+   * @param headers request {@link Headers}
+   * @return true if the request matches
+   */
+  public boolean matches(String method, String path, Headers headers) {
+    switch (matchType) {
+      case PATH_PREFIX:
+        return path.startsWith(value);
+      case HEADER:
+        String headerValue = headers.getFirst(name);
+        return headerValue != null && (value == null || value.equals(headerValue));
+      case METHOD:
+        return value.equalsIgnoreCase(method);
+      default:
+        return false;
+    }
+  }
+
+}
@@ -0,0 +1,30 @@
+package com.rforristall.java.load.balancer.admission;
+
+/**
+ * How queued requests of different priority classes are released when backend capacity frees up
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public enum PriorityScheduling {
+  
+  /**
+   * Always release from the highest priority class that has waiting requests
+   */
+  STRICT("Strict Priority"),
+  
+  /**
+   * Share released capacity between the classes with waiting requests in proportion to their weights
+   */
+  WEIGHTED_FAIR("Weighted Fair");
+  
+  private String name;
+  
+  private PriorityScheduling(String name) {
+    this.name = name;
+  }
+  
+  public String getName() {
+    return name;
+  }
+
+}
@@ -5,6 +5,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+import com.rforristall.java.load.balancer.metrics.BackendHealthEvent;
+
 /**
  * Backend server representation for managing if the connection is healthy and what its active
  * connection load currently is.
@@ -15,6 +17,11 @@ public abstract class AbstractBackend implements Backend {
   
   private static final String DEFAULT_HEALTH_CHECK_PATH = "health";
   
+  /**
+   * Weight given to the newest sample when updating the latency moving average
+   */
+  private static final double LATENCY_EWMA_ALPHA = 0.2;
+  
   /**
    * URL of the backend server that the load balancer will use
    */
@@ -25,6 +32,11 @@ public abstract class AbstractBackend implements Backend {
    */
   private final String healthCheckPath;
   
+  /**
+   * Zone of the backend server, null if its locality is unknown
+   */
+  private final String zone;
+  
   /**
    * Boolean if the server is healthy, managed in an Atomic state to make it thread safe
    */
@@ -35,6 +47,11 @@ public abstract class AbstractBackend implements Backend {
    */
   private final AtomicInteger activeConnections = new AtomicInteger(0);
   
+  /**
+   * Number of active connections the other load balancers in the cluster last reported, 0 outside of cluster mode
+   */
+  private volatile int remoteActiveConnections = 0;
+  
   /**
    * Number of total requests that the backend has served since starting
    */
@@ -50,14 +67,31 @@ public abstract class AbstractBackend implements Backend {
    */
   private final AtomicInteger consecutiveFailures = new AtomicInteger(0);
   
+  /**
+   * Moving average of the response time in nanoseconds, stored as the raw bits of a double so it can be updated with a CAS
+   */
+  private final AtomicLong latencyEwmaBits = new AtomicLong(Double.doubleToRawLongBits(0));
+  
+  /**
+   * Average latency EWMA the other load balancers in the cluster last reported and how many reported one, written
+   * by the gossip thread with the count first, so a reader may briefly weigh a fresh average by the previous count
+   */
+  private volatile double remoteLatencyEwma = 0;
+  private volatile int remoteLatencyMembers = 0;
+  
   /**
    * Instant on when the last health check of the server has been run, is set to volatile to make sure that the value is consistent across all threads
    */
   private volatile Instant lastHealthCheck;
   
   protected AbstractBackend(String url, String healthCheckPath) {
+    this(url, healthCheckPath, null);
+  }
+  
+  protected AbstractBackend(String url, String healthCheckPath, String zone) {
     this.url = url.endsWith("/") ? url.substring(0, url.length()-1) : url;
     this.healthCheckPath = healthCheckPath != null ? (healthCheckPath.startsWith("/") ? healthCheckPath.substring(1, healthCheckPath.length()) : healthCheckPath) : DEFAULT_HEALTH_CHECK_PATH;
+    this.zone = zone;
   }
 
   @Override
@@ -75,6 +109,11 @@ public abstract class AbstractBackend implements Backend {
     return url + "/" + healthCheckPath;
   }
 
+  @Override
+  public String getZone() {
+    return zone;
+  }
+
   @Override
   public boolean isHealthy() {
     return healthy.get();
@@ -82,7 +121,16 @@ public abstract class AbstractBackend implements Backend {
   
   @Override
   public void setHealthy(boolean healthStatus) {
-    healthy.set(healthStatus);
+    boolean previous = healthy.getAndSet(healthStatus);
+    if (previous != healthStatus) {
+      BackendHealthEvent event = new BackendHealthEvent();
+      if (event.shouldCommit()) {
+        event.backend = url;
+        event.healthy = healthStatus;
+        event.consecutiveFailures = consecutiveFailures.get();
+        event.commit();
+      }
+    }
   }
 
   @Override
@@ -100,6 +148,16 @@ public abstract class AbstractBackend implements Backend {
     activeConnections.decrementAndGet();
   }
 
+  @Override
+  public int getClusterActiveConnections() {
+    return activeConnections.get() + remoteActiveConnections;
+  }
+
+  @Override
+  public void setRemoteActiveConnections(int remoteActiveConnections) {
+    this.remoteActiveConnections = remoteActiveConnections;
+  }
+
   @Override
   public long getTotalRequests() {
     return totalRequests.get();
@@ -135,6 +193,49 @@ public abstract class AbstractBackend implements Backend {
     return consecutiveFailures.incrementAndGet();
   }
 
+  @Override
+  public void setConsecutiveFailures(int failures) {
+    consecutiveFailures.set(failures);
+  }
+
+  @Override
+  public double getLatencyEwma() {
+    return Double.longBitsToDouble(latencyEwmaBits.get());
+  }
+
+  @Override
+  public void setLatencyEwma(double latencyEwmaNanos) {
+    latencyEwmaBits.set(Double.doubleToRawLongBits(latencyEwmaNanos));
+  }
+
+  @Override
+  public double getClusterLatencyEwma() {
+    double local = getLatencyEwma();
+    int members = remoteLatencyMembers;
+    if (members == 0) {
+      return local;
+    }
+    return local > 0 ? (local + remoteLatencyEwma * members) / (members + 1) : remoteLatencyEwma;
+  }
+
+  @Override
+  public void setRemoteLatencyEwma(double remoteLatencyEwmaNanos, int reportingMembers) {
+    this.remoteLatencyMembers = reportingMembers;
+    this.remoteLatencyEwma = remoteLatencyEwmaNanos;
+  }
+
+  @Override
+  public void recordLatency(long latencyNanos) {
+    long currentBits;
+    long updatedBits;
+    do {
+      currentBits = latencyEwmaBits.get();
+      double current = Double.longBitsToDouble(currentBits);
+      double updated = current == 0 ? latencyNanos : current + LATENCY_EWMA_ALPHA * (latencyNanos - current);
+      updatedBits = Double.doubleToRawLongBits(updated);
+    } while (!latencyEwmaBits.compareAndSet(currentBits, updatedBits));
+  }
+
   @Override
   public Instant getLastHealthCheck() {
     return lastHealthCheck;
@@ -28,6 +28,12 @@ public interface Backend {
    */
   String getFullHealthCheckUrl();
   
+  /**
+   * Get the zone the backend runs in, such as a rack or availability zone, used to keep traffic close to the load balancer
+   * @return name of the zone, null if the backend's locality is unknown
+   */
+  String getZone();
+  
   /**
    * Check if the Backend is healthy based on the last health check
    * @return True if the backend is healthy and false otherwise
@@ -62,6 +68,18 @@ public interface Backend {
    */
   void decrementActiveConnections();
   
+  /**
+   * Get the estimated number of active connections to the backend across every load balancer in the cluster
+   * @return active connections of this load balancer plus those last reported by the other cluster members
+   */
+  int getClusterActiveConnections();
+  
+  /**
+   * Set the number of active connections the other cluster members reported for the backend
+   * @param remoteActiveConnections sum of the active connections reported by the other members
+   */
+  void setRemoteActiveConnections(int remoteActiveConnections);
+  
   /**
    * Get the number of total requests that the backend has serviced since being added to the load balancer
    * @return Number of total requests served
@@ -101,6 +119,44 @@ public interface Backend {
    */
   int incrementConsecutiveFailures();
   
+  /**
+   * Set the number of consecutive failures, used when restoring state saved by a previous run
+   * @param consecutiveFailures number of consecutive failures to restore
+   */
+  void setConsecutiveFailures(int consecutiveFailures);
+  
+  /**
+   * Get the exponentially weighted moving average of the time the backend takes to respond
+   * @return average response time in nanoseconds, 0 if no response has been recorded yet
+   */
+  double getLatencyEwma();
+  
+  /**
+   * Set the moving average of the response time, used when restoring state saved by a previous run
+   * @param latencyEwmaNanos average response time in nanoseconds
+   */
+  void setLatencyEwma(double latencyEwmaNanos);
+  
+  /**
+   * Get the estimated response time of the backend across every load balancer in the cluster
+   * @return average of this load balancer's latency EWMA and those reported by the other members that have sent the
+   * backend traffic, in nanoseconds, 0 if no member has a sample yet
+   */
+  double getClusterLatencyEwma();
+  
+  /**
+   * Set the latency EWMA the other cluster members reported for the backend
+   * @param remoteLatencyEwmaNanos average of the reported latency EWMAs in nanoseconds
+   * @param reportingMembers number of members the average is taken over, 0 if none has a sample
+   */
+  void setRemoteLatencyEwma(double remoteLatencyEwmaNanos, int reportingMembers);
+  
+  /**
+   * Fold the response time of a request into the moving average atomically
+   * @param latencyNanos time the backend took to respond in nanoseconds
+   */
+  void recordLatency(long latencyNanos);
+  
   /**
    * Get the time of when the last health check was issued to the server
    * @return When the backend had its last health check
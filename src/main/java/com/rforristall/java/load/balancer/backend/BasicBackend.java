@@ -20,6 +20,10 @@ public class BasicBackend extends AbstractBackend{
     super(url, healthCheckPath);
   }
 
+  protected BasicBackend(String url, String healthCheckPath, String zone) {
+    super(url, healthCheckPath, zone);
+  }
+
   @Override
   public void runHealthCheck(HttpClient httpClient) {
     try {
@@ -40,7 +44,7 @@ public class BasicBackend extends AbstractBackend{
         markUnhealthy();
       }
     } catch (Exception ex) {
-      
+      markUnhealthy();
     }
   }
   
@@ -0,0 +1,41 @@
+package com.rforristall.java.load.balancer.body;
+
+import java.io.IOException;
+
+/**
+ * Request body that could not be stored, either because it is larger than a single request may send or because
+ * the spool or memory budget shared by all requests is used up
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class BodyLimitExceededException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * HTTP status the request is answered with
+   */
+  private final int statusCode;
+
+  private BodyLimitExceededException(int statusCode, String message) {
+    super(message);
+    this.statusCode = statusCode;
+  }
+
+  public static BodyLimitExceededException tooLarge(long maxBodySize) {
+    return new BodyLimitExceededException(413, "Request body larger than " + maxBodySize + " bytes");
+  }
+
+  public static BodyLimitExceededException spoolFull() {
+    return new BodyLimitExceededException(503, "Request body spool is full");
+  }
+
+  public static BodyLimitExceededException memoryFull() {
+    return new BodyLimitExceededException(503, "Request body memory budget is used up");
+  }
+
+  public int getStatusCode() {
+    return statusCode;
+  }
+
+}
@@ -0,0 +1,166 @@
+package com.rforristall.java.load.balancer.body;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes a stored request body to the {@link java.net.http.HttpClient}, so every attempt of a request sends the
+ * same bytes. Segments in memory are handed out as read only views without copying, a spool file is read slice by
+ * slice with positional reads into chunks borrowed from the {@link RequestBody}. A chunk is read into again once
+ * the client has consumed the slice it held, so a body is sent through as many chunks as the client keeps queued
+ * however large the body is.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+final class ReplayPublisher implements Flow.Publisher<ByteBuffer> {
+
+  /**
+   * Largest buffer handed to the client at once, segments are sliced to this size and spool files to the chunk size
+   */
+  private static final int MAX_ITEM_SIZE = 64 * 1024;
+
+  private final List<ByteBuffer> segments;
+  private final RequestBody body;
+  private final FileChannel spoolFile;
+  private final long spoolLength;
+
+  ReplayPublisher(List<ByteBuffer> segments) {
+    this.segments = segments;
+    this.body = null;
+    this.spoolFile = null;
+    this.spoolLength = 0;
+  }
+
+  ReplayPublisher(RequestBody body, FileChannel spoolFile, long spoolLength) {
+    this.segments = List.of();
+    this.body = body;
+    this.spoolFile = spoolFile;
+    this.spoolLength = spoolLength;
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+    ReplaySubscription subscription = new ReplaySubscription(subscriber);
+    subscriber.onSubscribe(subscription);
+    subscription.drain();
+  }
+
+  private final class ReplaySubscription implements Flow.Subscription {
+
+    private final Flow.Subscriber<? super ByteBuffer> subscriber;
+    private final AtomicLong demand = new AtomicLong(0);
+
+    /**
+     * Number of pending drain requests, only the caller that raises it from zero emits so items are never delivered concurrently
+     */
+    private final AtomicInteger drains = new AtomicInteger(0);
+    private volatile boolean cancelled = false;
+    private int segment = 0;
+    private int offset = 0;
+    private long position = 0;
+    private boolean completed = false;
+
+    /**
+     * Chunks borrowed from the body for this attempt, and the spool slices handed to the client in the order they were sent
+     */
+    private final List<byte[]> borrowedChunks = new ArrayList<>(4);
+    private final ArrayDeque<ByteBuffer> sentSlices = new ArrayDeque<>(4);
+
+    private ReplaySubscription(Flow.Subscriber<? super ByteBuffer> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        cancelled = true;
+        subscriber.onError(new IllegalArgumentException("Non positive request " + n));
+        return;
+      }
+      demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      drain();
+    }
+
+    private void drain() {
+      if (drains.getAndIncrement() != 0) {
+        return;
+      }
+      do {
+        while (!cancelled && !completed && demand.get() > 0 && hasNext()) {
+          ByteBuffer item;
+          try {
+            item = next();
+          } catch (IOException ex) {
+            completed = true;
+            subscriber.onError(ex);
+            break;
+          }
+          demand.decrementAndGet();
+          subscriber.onNext(item);
+        }
+        if (!cancelled && !completed && !hasNext()) {
+          completed = true;
+          subscriber.onComplete();
+        }
+        if ((cancelled || completed) && !borrowedChunks.isEmpty()) {
+          body.returnChunks(borrowedChunks);
+          borrowedChunks.clear();
+          sentSlices.clear();
+        }
+      } while (drains.decrementAndGet() != 0);
+    }
+
+    private boolean hasNext() {
+      return spoolFile != null ? position < spoolLength : segment < segments.size();
+    }
+
+    private ByteBuffer next() throws IOException {
+      if (spoolFile != null) {
+        ByteBuffer item;
+        ByteBuffer oldest = sentSlices.peek();
+        if (oldest != null && !oldest.hasRemaining()) {
+          item = sentSlices.poll().clear();
+        } else {
+          // The client has not consumed even the oldest slice it was sent, it gets a chunk of its own
+          byte[] chunk = body.borrowChunk();
+          borrowedChunks.add(chunk);
+          item = ByteBuffer.wrap(chunk);
+        }
+        item.limit((int) Math.min(item.capacity(), spoolLength - position));
+        while (item.hasRemaining()) {
+          if (spoolFile.read(item, position + item.position()) < 0) {
+            throw new EOFException("Spool file ended after " + (position + item.position()) + " of " + spoolLength + " bytes");
+          }
+        }
+        position += item.limit();
+        sentSlices.add(item.flip());
+        return item;
+      }
+      ByteBuffer source = segments.get(segment);
+      int length = Math.min(MAX_ITEM_SIZE, source.remaining() - offset);
+      ByteBuffer item = source.slice(source.position() + offset, length).asReadOnlyBuffer();
+      offset += length;
+      if (offset == source.remaining()) {
+        segment++;
+        offset = 0;
+      }
+      return item;
+    }
+
+  }
+
+}
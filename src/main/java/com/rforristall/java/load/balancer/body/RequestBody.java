@@ -0,0 +1,128 @@
+package com.rforristall.java.load.balancer.body;
+
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Request body read once from the client and kept until the request is done, either in chunks borrowed from the
+ * memory pool of the {@link RequestBodyStore} or in a spool file read back with positional reads. It can be sent
+ * any number of times, so a retry sends the whole body to the next backend. A spooled body is read back through
+ * chunks it borrows from the same pool and keeps until it is closed, so sending it again allocates nothing.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class RequestBody implements AutoCloseable {
+
+  static final RequestBody EMPTY = new RequestBody(List.of(), 0, () -> {});
+
+  private final List<ByteBuffer> segments;
+  private final FileChannel spoolFile;
+  private final long length;
+  private final RequestBodyStore store;
+
+  /**
+   * Chunks of the pool borrowed to read the spool file back, every one is returned to the pool on close
+   */
+  private final List<byte[]> pooledChunks = new ArrayList<>(1);
+
+  /**
+   * Borrowed chunks no attempt is reading into. Attempts of a request run one after the other, so the chunks an
+   * attempt hands back are no longer being sent once the next attempt starts
+   */
+  private final ArrayDeque<byte[]> idleChunks = new ArrayDeque<>(1);
+
+  /**
+   * Gives the chunks back to the pool, or closes and deletes the spool file and gives its bytes back to the budget
+   */
+  private final Runnable release;
+  private boolean closed = false;
+
+  RequestBody(List<ByteBuffer> segments, long length, Runnable release) {
+    this.segments = segments;
+    this.spoolFile = null;
+    this.length = length;
+    this.store = null;
+    this.release = release;
+  }
+
+  RequestBody(FileChannel spoolFile, long length, RequestBodyStore store, Runnable release) {
+    this.segments = List.of();
+    this.spoolFile = spoolFile;
+    this.length = length;
+    this.store = store;
+    this.release = release;
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * @return true if the body is held in a spool file rather than in memory
+   */
+  public boolean isSpooled() {
+    return spoolFile != null;
+  }
+
+  /**
+   * Create a publisher sending the whole body, call once per attempt
+   * @return {@link BodyPublisher} with the length of the body
+   */
+  public BodyPublisher publisher() {
+    if (length == 0) {
+      return BodyPublishers.noBody();
+    }
+    ReplayPublisher publisher = spoolFile != null ? new ReplayPublisher(this, spoolFile, length) : new ReplayPublisher(segments);
+    return BodyPublishers.fromPublisher(publisher, length);
+  }
+
+  /**
+   * Release the storage of the body, it must not be sent afterwards
+   */
+  @Override
+  public synchronized void close() {
+    if (!closed) {
+      closed = true;
+      release.run();
+      if (store != null) {
+        store.releaseChunks(pooledChunks);
+        pooledChunks.clear();
+        idleChunks.clear();
+      }
+    }
+  }
+
+  /**
+   * Get a chunk to read the spool file into, an idle one of this body or else a new one from the pool
+   * @return chunk of {@link RequestBodyStore#CHUNK_SIZE} bytes, allocated outside the pool only if its memory budget is used up
+   */
+  synchronized byte[] borrowChunk() {
+    byte[] chunk = idleChunks.poll();
+    if (chunk != null) {
+      return chunk;
+    }
+    chunk = closed ? null : store.acquireChunk();
+    if (chunk == null) {
+      // The body is already stored and has to be sent, a chunk that is not pooled is left to the garbage collector
+      return new byte[RequestBodyStore.CHUNK_SIZE];
+    }
+    pooledChunks.add(chunk);
+    return chunk;
+  }
+
+  /**
+   * Give back chunks from {@link #borrowChunk()} once an attempt has published all it is going to
+   */
+  synchronized void returnChunks(Collection<byte[]> chunks) {
+    if (!closed) {
+      idleChunks.addAll(chunks);
+    }
+  }
+
+}
@@ -0,0 +1,283 @@
+package com.rforristall.java.load.balancer.body;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores request bodies so they can be replayed on retry without holding large uploads on the heap. Bodies up to
+ * the memory threshold, rounded up to whole chunks, are read into fixed size chunks from a pool whose total size
+ * is capped by the memory budget. Larger bodies, and bodies the pool runs out of chunks for, spill to a temp file.
+ * The upload is copied to the file and read back every time the body is sent through chunks of the same pool, so
+ * heap use stays within the memory budget however large or numerous the uploads are. A body that finds the pool
+ * exhausted before it has a chunk to copy through fails with a {@link BodyLimitExceededException}.
+ * <p>
+ * Spool files are read with positional reads rather than mapped. Java has no supported way to unmap a file, so a
+ * mapped spool file would hold its disk space until the mapping is garbage collected. Spooled bytes are counted
+ * against a budget shared by all requests in flight, a body that would exceed it or the per request size limit
+ * fails with a {@link BodyLimitExceededException}. The spool file stays open until the body is closed, which
+ * deletes it and returns its bytes to the budget, so the budget bounds the disk space in use.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class RequestBodyStore {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(RequestBodyStore.class);
+
+  static final int CHUNK_SIZE = 16 * 1024;
+
+  private final Path spoolDirectory;
+  private final int memoryThreshold;
+  private final int maxChunks;
+  private final long maxBodySize;
+  private final long spoolBudget;
+  private final ConcurrentLinkedQueue<byte[]> chunkPool = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Chunks allocated so far, pooled or in use, never more than the memory budget allows
+   */
+  private final AtomicInteger allocatedChunks = new AtomicInteger(0);
+  private final AtomicLong spooledBytes = new AtomicLong(0);
+  private final AtomicLong spooledBodies = new AtomicLong(0);
+  private final AtomicLong rejectedBodies = new AtomicLong(0);
+
+  /**
+   * @param spoolDirectory directory the spool files are created in
+   * @param memoryThreshold largest body in bytes kept in memory
+   * @param memoryBudget bytes of pooled memory shared by all bodies kept in memory
+   * @param maxBodySize largest body in bytes a single request may send
+   * @param spoolBudget bytes of spool files shared by all requests in flight
+   */
+  public RequestBodyStore(Path spoolDirectory, int memoryThreshold, long memoryBudget, long maxBodySize, long spoolBudget) {
+    this.spoolDirectory = spoolDirectory;
+    this.memoryThreshold = memoryThreshold;
+    this.maxChunks = (int) Math.min(Integer.MAX_VALUE, memoryBudget / CHUNK_SIZE);
+    this.maxBodySize = maxBodySize;
+    this.spoolBudget = spoolBudget;
+  }
+
+  /**
+   * Read a request body to the end
+   * @param in stream of the request body
+   * @param contentLength length announced by the client, -1 if unknown
+   * @return {@link RequestBody} that has to be closed once the request is done
+   * @throws BodyLimitExceededException if the body is too large or the spool budget is used up
+   * @throws IOException if reading from the client or writing the spool file fails
+   */
+  public RequestBody read(InputStream in, long contentLength) throws IOException {
+    if (contentLength > maxBodySize) {
+      rejectedBodies.incrementAndGet();
+      throw BodyLimitExceededException.tooLarge(maxBodySize);
+    }
+    if (contentLength == 0) {
+      return RequestBody.EMPTY;
+    }
+    List<byte[]> chunks = new ArrayList<>();
+    long length = 0;
+    try {
+      // A body announced to be large goes straight to the spool instead of passing through the pool first
+      while (contentLength <= memoryThreshold && length < memoryThreshold) {
+        byte[] chunk = acquireChunk();
+        if (chunk == null) {
+          break;
+        }
+        chunks.add(chunk);
+        int filled = readFully(in, chunk);
+        length += filled;
+        if (filled < CHUNK_SIZE) {
+          return inMemory(chunks, length);
+        }
+      }
+      return spool(in, chunks, length);
+    } catch (IOException | RuntimeException ex) {
+      releaseChunks(chunks);
+      if (ex instanceof BodyLimitExceededException) {
+        rejectedBodies.incrementAndGet();
+      }
+      throw ex;
+    }
+  }
+
+  /**
+   * @return bytes currently held in spool files
+   */
+  public long getSpooledBytes() {
+    return spooledBytes.get();
+  }
+
+  /**
+   * @return bytes of memory currently allocated to the chunk pool
+   */
+  public long getAllocatedMemory() {
+    return (long) allocatedChunks.get() * CHUNK_SIZE;
+  }
+
+  @Override
+  public String toString() {
+    return "Request bodies spooled: " + spooledBodies.get()
+        + ", rejected: " + rejectedBodies.get()
+        + ", spooled bytes: " + spooledBytes.get()
+        + ", pooled memory: " + getAllocatedMemory();
+  }
+
+  private RequestBody inMemory(List<byte[]> chunks, long length) {
+    List<ByteBuffer> segments = new ArrayList<>(chunks.size());
+    long remaining = length;
+    for (byte[] chunk : chunks) {
+      int filled = (int) Math.min(CHUNK_SIZE, remaining);
+      if (filled > 0) {
+        segments.add(ByteBuffer.wrap(chunk, 0, filled));
+      }
+      remaining -= filled;
+    }
+    if (length == 0) {
+      releaseChunks(chunks);
+      return RequestBody.EMPTY;
+    }
+    return new RequestBody(Collections.unmodifiableList(segments), length, () -> releaseChunks(chunks));
+  }
+
+  /**
+   * Write the chunks read so far and the rest of the stream to a spool file that is kept open for replay
+   */
+  private RequestBody spool(InputStream in, List<byte[]> chunks, long length) throws IOException {
+    long reserved = 0;
+    Path file = Files.createTempFile(spoolDirectory, "lb-body-", ".spool");
+    FileChannel channel = null;
+    try {
+      channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      reserve(length);
+      reserved = length;
+      long remaining = length;
+      for (byte[] chunk : chunks) {
+        int filled = (int) Math.min(CHUNK_SIZE, remaining);
+        writeFully(channel, ByteBuffer.wrap(chunk, 0, filled));
+        remaining -= filled;
+      }
+      // The rest is copied through a chunk of the pool, one that already belongs to this body if it has any since the pool may be exhausted by now
+      if (chunks.isEmpty()) {
+        byte[] chunk = acquireChunk();
+        if (chunk == null) {
+          throw BodyLimitExceededException.memoryFull();
+        }
+        chunks.add(chunk);
+      }
+      byte[] transfer = chunks.get(0);
+      while (true) {
+        int filled = readFully(in, transfer);
+        if (filled == 0) {
+          break;
+        }
+        if (length + filled > maxBodySize) {
+          throw BodyLimitExceededException.tooLarge(maxBodySize);
+        }
+        reserve(filled);
+        reserved += filled;
+        writeFully(channel, ByteBuffer.wrap(transfer, 0, filled));
+        length += filled;
+        if (filled < CHUNK_SIZE) {
+          break;
+        }
+      }
+      releaseChunks(chunks);
+      chunks.clear();
+      if (length == 0) {
+        removeSpoolFile(channel, file, reserved);
+        return RequestBody.EMPTY;
+      }
+      spooledBodies.incrementAndGet();
+      FileChannel spooled = channel;
+      long spooledLength = reserved;
+      return new RequestBody(channel, length, this, () -> removeSpoolFile(spooled, file, spooledLength));
+    } catch (IOException | RuntimeException ex) {
+      removeSpoolFile(channel, file, reserved);
+      throw ex;
+    }
+  }
+
+  /**
+   * Close and delete a spool file, then return its bytes to the budget once the disk space is actually freed
+   */
+  private void removeSpoolFile(FileChannel channel, Path file, long reserved) {
+    try {
+      if (channel != null) {
+        channel.close();
+      }
+      Files.deleteIfExists(file);
+    } catch (IOException ex) {
+      LOGGER.warn("Failed to delete spool file {}", file, ex);
+    }
+    spooledBytes.addAndGet(-reserved);
+  }
+
+  /**
+   * Count bytes against the spool budget
+   * @throws BodyLimitExceededException if the budget does not have room for them
+   */
+  private void reserve(long bytes) throws BodyLimitExceededException {
+    if (spooledBytes.addAndGet(bytes) > spoolBudget) {
+      spooledBytes.addAndGet(-bytes);
+      throw BodyLimitExceededException.spoolFull();
+    }
+  }
+
+  /**
+   * Take a chunk from the pool, allocating one while the memory budget allows
+   * @return chunk, or null if the memory budget is used up
+   */
+  byte[] acquireChunk() {
+    byte[] chunk = chunkPool.poll();
+    if (chunk != null) {
+      return chunk;
+    }
+    int allocated;
+    do {
+      allocated = allocatedChunks.get();
+      if (allocated >= maxChunks) {
+        return null;
+      }
+    } while (!allocatedChunks.compareAndSet(allocated, allocated + 1));
+    return new byte[CHUNK_SIZE];
+  }
+
+  void releaseChunks(Collection<byte[]> chunks) {
+    chunkPool.addAll(chunks);
+  }
+
+  /**
+   * Fill the chunk unless the stream ends first
+   * @return number of bytes read, less than the chunk size only at the end of the stream
+   */
+  private static int readFully(InputStream in, byte[] chunk) throws IOException {
+    int filled = 0;
+    while (filled < chunk.length) {
+      int read = in.read(chunk, filled, chunk.length - filled);
+      if (read == -1) {
+        break;
+      }
+      filled += read;
+    }
+    return filled;
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+}
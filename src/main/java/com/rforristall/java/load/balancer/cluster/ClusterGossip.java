@@ -0,0 +1,428 @@
+package com.rforristall.java.load.balancer.cluster;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rforristall.java.load.balancer.backend.Backend;
+
+/**
+ * Shares backend state between load balancer instances over UDP so they act as one cluster. Every round each
+ * instance sends its health verdicts, active connections and latency EWMA for every backend to the members it
+ * knows about, along with the list of members it has heard from so new instances only need one seed to be
+ * discovered by everyone.
+ * <p>
+ * Health probing is split between the live members with rendezvous hashing on the backend URL, an instance
+ * only probes the backends it owns and takes the verdict for the rest from the member that probed them. When a
+ * member stops gossiping for longer than the member timeout its backends are reassigned to the survivors.
+ * The active connections reported by the other members are summed into
+ * {@link Backend#setRemoteActiveConnections(int)} and their latency EWMAs averaged into
+ * {@link Backend#setRemoteLatencyEwma(double, int)}, so strategies can balance on the cluster wide estimates.
+ * <p>
+ * Datagram layout, all values big endian:
+ * <pre>
+ * header:  magic int, version byte, node id long, round long,
+ *          member count byte, members (address length byte, address bytes, port short)
+ * entries: entry count short, entries (URL hash long, flags byte, active connections int, latency EWMA in microseconds int)
+ * </pre>
+ * A round that does not fit in one datagram is split, later datagrams of the round carry no members.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class ClusterGossip {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ClusterGossip.class);
+
+  private static final int MAGIC = 0x4C424347;
+  private static final byte VERSION = 1;
+
+  /**
+   * Datagrams are kept below a typical Ethernet MTU so they are never fragmented
+   */
+  private static final int MAX_DATAGRAM_SIZE = 1400;
+  private static final int HEADER_SIZE = 4 + 1 + 8 + 8 + 1;
+  private static final int ENTRY_SIZE = 8 + 1 + 4 + 4;
+  private static final int MAX_MEMBER_SIZE = 1 + 16 + 2;
+  private static final int MAX_ADVERTISED_MEMBERS = 32;
+
+  private static final int FLAG_HEALTHY = 0x1;
+
+  /**
+   * Set when the sender probed the backend itself, only those verdicts are applied by the receiver
+   */
+  private static final int FLAG_PROBED = 0x2;
+
+  private final long nodeId = ThreadLocalRandom.current().nextLong();
+  private final List<Backend> backends;
+  private final long[] urlHashes;
+  private final Map<Long, Integer> backendIndexes = new HashMap<>();
+  private final List<InetSocketAddress> seeds;
+  private final int intervalMs;
+  private final long memberTimeoutNanos;
+  private final DatagramChannel channel;
+  private final ScheduledExecutorService scheduler;
+  private final Thread receiverThread;
+  private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+  private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(65536);
+
+  /**
+   * Members that gossiped within the member timeout, keyed by the address their datagrams come from
+   */
+  private final Map<InetSocketAddress, ClusterMember> members = new HashMap<>();
+
+  /**
+   * Addresses other members advertised that have not been heard from directly, with when they were first advertised
+   */
+  private final Map<InetSocketAddress, Long> candidates = new HashMap<>();
+
+  /**
+   * Addresses our own datagrams came back from, so they are not gossiped to again when other members advertise them
+   */
+  private final Set<InetSocketAddress> selfAddresses = new HashSet<>();
+
+  /**
+   * Node ids of the live members including this one, replaced whenever membership changes
+   */
+  private volatile long[] liveNodeIds = new long[] {nodeId};
+  private long round = 0;
+  private volatile boolean running = false;
+
+  /**
+   * Bind the gossip socket
+   * @param bindAddress {@link InetSocketAddress} to receive gossip on
+   * @param seeds {@link List}<{@link InetSocketAddress}> of members to contact on startup, more are learned from their gossip
+   * @param backends {@link List}<{@link Backend}> whose state is shared, matched between members by URL
+   * @param intervalMs milliseconds between gossip rounds
+   * @param memberTimeoutMs milliseconds without gossip after which a member is considered gone
+   * @throws IOException if the socket cannot be bound
+   */
+  public ClusterGossip(InetSocketAddress bindAddress, List<InetSocketAddress> seeds, List<Backend> backends, int intervalMs, int memberTimeoutMs) throws IOException {
+    this.backends = backends;
+    this.seeds = seeds;
+    this.intervalMs = intervalMs;
+    this.memberTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(memberTimeoutMs);
+    this.urlHashes = new long[backends.size()];
+    for (int i = 0; i < backends.size(); i++) {
+      urlHashes[i] = hashUrl(backends.get(i).getUrl());
+      backendIndexes.put(urlHashes[i], i);
+    }
+    this.channel = bindAddress.getAddress() instanceof Inet6Address
+        ? DatagramChannel.open(StandardProtocolFamily.INET6)
+        : DatagramChannel.open(StandardProtocolFamily.INET);
+    channel.bind(bindAddress);
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ClusterGossip");
+        t.setDaemon(true);
+        return t;
+    });
+    this.receiverThread = new Thread(this::receive, "ClusterGossipReceiver");
+    this.receiverThread.setDaemon(true);
+  }
+
+  public void start() {
+    running = true;
+    receiverThread.start();
+    scheduler.scheduleAtFixedRate(this::gossip, 0, intervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  public void stop() {
+    running = false;
+    scheduler.shutdown();
+    try {
+      if (!scheduler.awaitTermination(10, TimeUnit.SECONDS)) {
+          scheduler.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+        scheduler.shutdownNow();
+    }
+    try {
+      channel.close();
+      receiverThread.join(TimeUnit.SECONDS.toMillis(10));
+    } catch (IOException ex) {
+      LOGGER.warn("Failed to close cluster gossip socket", ex);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Check if this instance is responsible for health checking the backend, safe to call from any thread
+   * @param backend {@link Backend} to check
+   * @return true if this instance owns the backend among the live members
+   */
+  public boolean isProbedLocally(Backend backend) {
+    return ownerOf(hashUrl(backend.getUrl())) == nodeId;
+  }
+
+  /**
+   * Get the number of live members including this instance
+   * @return live cluster size
+   */
+  public int getLiveMembers() {
+    return liveNodeIds.length;
+  }
+
+  /**
+   * Get the port the gossip socket is bound to, useful when an ephemeral port was requested
+   * @return bound port
+   */
+  public int getPort() {
+    try {
+      return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    } catch (IOException ex) {
+      return -1;
+    }
+  }
+
+  /**
+   * Expire silent members and send this instance's state to every known member, runs on the scheduler thread
+   */
+  private void gossip() {
+    try {
+      List<InetSocketAddress> targets;
+      List<InetSocketAddress> advertised;
+      synchronized (this) {
+        expireMembers(System.nanoTime());
+        Set<InetSocketAddress> addresses = new LinkedHashSet<>(members.keySet());
+        addresses.addAll(candidates.keySet());
+        addresses.addAll(seeds);
+        addresses.removeAll(selfAddresses);
+        targets = new ArrayList<>(addresses);
+        advertised = new ArrayList<>(members.keySet());
+        round++;
+      }
+      int backendIndex = 0;
+      do {
+        backendIndex = encode(advertised, backendIndex);
+        advertised = List.of();
+        for (InetSocketAddress target : targets) {
+          sendBuffer.rewind();
+          channel.send(sendBuffer, target);
+        }
+      } while (backendIndex < backends.size());
+    } catch (ClosedChannelException ex) {
+      // Stopping
+    } catch (IOException | RuntimeException ex) {
+      LOGGER.warn("Cluster gossip round failed", ex);
+    }
+  }
+
+  /**
+   * Fill the send buffer with one datagram of the current round
+   * @return index of the first backend that did not fit
+   */
+  private int encode(List<InetSocketAddress> advertised, int firstBackend) {
+    sendBuffer.clear();
+    sendBuffer.putInt(MAGIC);
+    sendBuffer.put(VERSION);
+    sendBuffer.putLong(nodeId);
+    sendBuffer.putLong(round);
+    int memberCount = Math.min(advertised.size(), Math.min(MAX_ADVERTISED_MEMBERS, (MAX_DATAGRAM_SIZE - HEADER_SIZE - 2 - ENTRY_SIZE) / MAX_MEMBER_SIZE));
+    sendBuffer.put((byte) memberCount);
+    for (int i = 0; i < memberCount; i++) {
+      InetSocketAddress member = advertised.get(i);
+      byte[] address = member.getAddress().getAddress();
+      sendBuffer.put((byte) address.length);
+      sendBuffer.put(address);
+      sendBuffer.putShort((short) member.getPort());
+    }
+    int entryCount = Math.min(backends.size() - firstBackend, (sendBuffer.remaining() - 2) / ENTRY_SIZE);
+    sendBuffer.putShort((short) entryCount);
+    for (int i = firstBackend; i < firstBackend + entryCount; i++) {
+      Backend backend = backends.get(i);
+      int flags = backend.isHealthy() ? FLAG_HEALTHY : 0;
+      if (ownerOf(urlHashes[i]) == nodeId) {
+        flags |= FLAG_PROBED;
+      }
+      sendBuffer.putLong(urlHashes[i]);
+      sendBuffer.put((byte) flags);
+      sendBuffer.putInt(backend.getActiveConnections());
+      sendBuffer.putInt((int) Math.min(backend.getLatencyEwma() / 1000, Integer.MAX_VALUE));
+    }
+    sendBuffer.flip();
+    return firstBackend + entryCount;
+  }
+
+  private void receive() {
+    while (running) {
+      try {
+        receiveBuffer.clear();
+        SocketAddress from = channel.receive(receiveBuffer);
+        receiveBuffer.flip();
+        handle((InetSocketAddress) from, receiveBuffer);
+      } catch (ClosedChannelException ex) {
+        return;
+      } catch (IOException ex) {
+        LOGGER.warn("Failed to receive cluster gossip", ex);
+      } catch (BufferUnderflowException | IllegalArgumentException ex) {
+        LOGGER.debug("Dropped malformed cluster gossip datagram", ex);
+      }
+    }
+  }
+
+  private synchronized void handle(InetSocketAddress from, ByteBuffer datagram) throws IOException {
+    if (datagram.getInt() != MAGIC || datagram.get() != VERSION) {
+      return;
+    }
+    long senderId = datagram.getLong();
+    long senderRound = datagram.getLong();
+    if (senderId == nodeId) {
+      selfAddresses.add(from);
+      candidates.remove(from);
+      return;
+    }
+    long now = System.nanoTime();
+    ClusterMember member = members.get(from);
+    if (member == null || member.getNodeId() != senderId) {
+      LOGGER.info("Cluster member {} {}", from, member == null ? "joined" : "restarted");
+      member = new ClusterMember(from, senderId, backends.size());
+      members.put(from, member);
+      candidates.remove(from);
+      refreshLiveNodeIds();
+    } else if (senderRound < member.getRound()) {
+      // Reordered datagram from an earlier round
+      return;
+    }
+    member.seen(senderRound, now);
+    int memberCount = datagram.get() & 0xff;
+    for (int i = 0; i < memberCount; i++) {
+      byte[] address = new byte[datagram.get()];
+      datagram.get(address);
+      InetSocketAddress advertised = new InetSocketAddress(InetAddress.getByAddress(address), datagram.getShort() & 0xffff);
+      if (!members.containsKey(advertised) && !selfAddresses.contains(advertised)) {
+        candidates.putIfAbsent(advertised, now);
+      }
+    }
+    int entryCount = datagram.getShort() & 0xffff;
+    for (int i = 0; i < entryCount; i++) {
+      Integer index = backendIndexes.get(datagram.getLong());
+      int flags = datagram.get();
+      int connections = datagram.getInt();
+      long latencyMicros = datagram.getInt() & 0xffffffffL;
+      if (index == null) {
+        continue;
+      }
+      member.update(index, connections, latencyMicros * 1000d);
+      if ((flags & FLAG_PROBED) != 0 && ownerOf(urlHashes[index]) != nodeId) {
+        Backend backend = backends.get(index);
+        boolean healthy = (flags & FLAG_HEALTHY) != 0;
+        backend.setHealthy(healthy);
+        if (healthy) {
+          backend.resetConsecutiveFailures();
+        }
+      }
+    }
+    refreshRemoteState();
+  }
+
+  private void expireMembers(long now) {
+    boolean changed = false;
+    Iterator<ClusterMember> iterator = members.values().iterator();
+    while (iterator.hasNext()) {
+      ClusterMember member = iterator.next();
+      if (now - member.getLastSeenNanos() > memberTimeoutNanos) {
+        LOGGER.info("Cluster member {} timed out", member.getAddress());
+        iterator.remove();
+        changed = true;
+      }
+    }
+    candidates.values().removeIf(advertisedAt -> now - advertisedAt > memberTimeoutNanos);
+    if (changed) {
+      refreshLiveNodeIds();
+      refreshRemoteState();
+    }
+  }
+
+  private void refreshLiveNodeIds() {
+    long[] nodeIds = new long[members.size() + 1];
+    int i = 0;
+    nodeIds[i++] = nodeId;
+    for (ClusterMember member : members.values()) {
+      nodeIds[i++] = member.getNodeId();
+    }
+    Arrays.sort(nodeIds);
+    liveNodeIds = nodeIds;
+  }
+
+  /**
+   * Push the connections and latencies the live members reported into the backends, members without a latency sample are left out of the average
+   */
+  private void refreshRemoteState() {
+    for (int i = 0; i < backends.size(); i++) {
+      int connections = 0;
+      double latencyTotal = 0;
+      int latencyMembers = 0;
+      for (ClusterMember member : members.values()) {
+        connections += member.getActiveConnections(i);
+        double latency = member.getLatencyEwma(i);
+        if (latency > 0) {
+          latencyTotal += latency;
+          latencyMembers++;
+        }
+      }
+      Backend backend = backends.get(i);
+      backend.setRemoteActiveConnections(connections);
+      backend.setRemoteLatencyEwma(latencyMembers > 0 ? latencyTotal / latencyMembers : 0, latencyMembers);
+    }
+  }
+
+  /**
+   * Rendezvous hashing, every member that agrees on the live set picks the same owner and only the backends of a
+   * departed member move when it leaves
+   */
+  private long ownerOf(long urlHash) {
+    long owner = 0;
+    long bestScore = Long.MIN_VALUE;
+    for (long candidate : liveNodeIds) {
+      long score = mix(candidate ^ urlHash);
+      if (score > bestScore || (score == bestScore && candidate > owner)) {
+        bestScore = score;
+        owner = candidate;
+      }
+    }
+    return owner;
+  }
+
+  private static long mix(long value) {
+    value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+    value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+    return value ^ (value >>> 31);
+  }
+
+  /**
+   * 64 bit FNV-1a hash of the URL, stable across instances and restarts
+   */
+  private static long hashUrl(String url) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : url.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+}
@@ -0,0 +1,68 @@
+package com.rforristall.java.load.balancer.cluster;
+
+import java.net.InetSocketAddress;
+
+/**
+ * State another load balancer in the cluster last reported about each backend, indexed the same as the local
+ * backend list. Only accessed while holding the {@link ClusterGossip} lock.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+final class ClusterMember {
+  
+  private final InetSocketAddress address;
+  
+  /**
+   * Random id the member picked when it started, a new id from the same address means the member restarted
+   */
+  private final long nodeId;
+  private final int[] activeConnections;
+  private final double[] latencyEwma;
+  private long round = -1;
+  private long lastSeenNanos;
+  
+  ClusterMember(InetSocketAddress address, long nodeId, int backendCount) {
+    this.address = address;
+    this.nodeId = nodeId;
+    this.activeConnections = new int[backendCount];
+    this.latencyEwma = new double[backendCount];
+  }
+  
+  InetSocketAddress getAddress() {
+    return address;
+  }
+  
+  long getNodeId() {
+    return nodeId;
+  }
+  
+  long getRound() {
+    return round;
+  }
+  
+  long getLastSeenNanos() {
+    return lastSeenNanos;
+  }
+  
+  /**
+   * Record that a gossip round from the member arrived
+   */
+  void seen(long round, long nowNanos) {
+    this.round = round;
+    this.lastSeenNanos = nowNanos;
+  }
+  
+  int getActiveConnections(int backendIndex) {
+    return activeConnections[backendIndex];
+  }
+  
+  double getLatencyEwma(int backendIndex) {
+    return latencyEwma[backendIndex];
+  }
+  
+  void update(int backendIndex, int connections, double latencyEwmaNanos) {
+    activeConnections[backendIndex] = connections;
+    latencyEwma[backendIndex] = latencyEwmaNanos;
+  }
+
+}
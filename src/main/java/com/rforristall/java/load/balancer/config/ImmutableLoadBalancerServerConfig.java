@@ -1,13 +1,23 @@
 package com.rforristall.java.load.balancer.config;
 
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+import com.rforristall.java.load.balancer.accesslog.AccessLogFullPolicy;
+import com.rforristall.java.load.balancer.admission.PriorityClass;
+import com.rforristall.java.load.balancer.admission.PriorityRule;
+import com.rforristall.java.load.balancer.admission.PriorityScheduling;
 import com.rforristall.java.load.balancer.backend.Backend;
+import com.rforristall.java.load.balancer.routing.BackendPool;
+import com.rforristall.java.load.balancer.routing.RouteRule;
+import com.rforristall.java.load.balancer.routing.RoutingTable;
 import com.rforristall.java.load.balancer.strategy.BalancingStrategies;
 import com.rforristall.java.load.balancer.strategy.BalancingStrategy;
-import com.rforristall.java.load.balancer.strategy.BalancingStrategyBuilder;
 
 public class ImmutableLoadBalancerServerConfig implements LoadBalancerServerConfig{
   
@@ -17,14 +27,85 @@ public class ImmutableLoadBalancerServerConfig implements LoadBalancerServerConf
   private final int healthCheckInterval;
   private final int requestTimeout;
   private final int maxRetries;
+  private final int http2Port;
+  private final int http2MaxConcurrentStreams;
+  private final int http2ListenerShards;
+  private final Path accessLogPath;
+  private final int accessLogBufferSize;
+  private final AccessLogFullPolicy accessLogFullPolicy;
+  private final long accessLogMaxFileSize;
+  private final int accessLogMaxFiles;
+  private final Path stateSnapshotPath;
+  private final int stateSnapshotInterval;
+  private final InetSocketAddress clusterBindAddress;
+  private final List<InetSocketAddress> clusterSeeds;
+  private final int clusterGossipInterval;
+  private final int clusterMemberTimeout;
+  private final List<PriorityClass> priorityClasses;
+  private final List<PriorityRule> priorityRules;
+  private final PriorityScheduling priorityScheduling;
+  private final int maxConnectionsPerBackend;
+  private final int tunnelPort;
+  private final int tunnelIdleTimeout;
+  private final List<BackendPool> backendPools;
+  private final List<RouteRule> routes;
+  private final RoutingTable routingTable;
+  private final int requestBodyMemoryThreshold;
+  private final long requestBodyMemoryBudget;
+  private final Path requestBodySpoolPath;
+  private final long requestBodySpoolBudget;
+  private final long maxRequestBodySize;
+  private final String zone;
+  private final double zoneMinHealthyFraction;
+  private final int zoneLoadThreshold;
   
   private ImmutableLoadBalancerServerConfig(ImmutableLoadBalancerServerConfigBuilder builder) {
     this.port = builder.port;
     this.backends = Collections.unmodifiableList(new ArrayList<>(builder.backends));
-    this.balancingStrategy = BalancingStrategyBuilder.createStrategy(builder.strategy, backends);
+    BackendPool defaultPool = new BackendPool(BackendPool.DEFAULT_POOL, backends, builder.strategy, builder.healthCheckInterval, builder.maxRetries);
+    if (builder.zone != null) {
+      defaultPool = defaultPool.withZone(builder.zone, builder.zoneMinHealthyFraction, builder.zoneLoadThreshold);
+    }
+    this.balancingStrategy = defaultPool.getStrategy();
     this.healthCheckInterval = builder.healthCheckInterval;
     this.requestTimeout = builder.requestTimeout;
     this.maxRetries = builder.maxRetries;
+    this.http2Port = builder.http2Port;
+    this.http2MaxConcurrentStreams = builder.http2MaxConcurrentStreams;
+    this.http2ListenerShards = builder.http2ListenerShards;
+    this.accessLogPath = builder.accessLogPath;
+    this.accessLogBufferSize = builder.accessLogBufferSize;
+    this.accessLogFullPolicy = builder.accessLogFullPolicy;
+    this.accessLogMaxFileSize = builder.accessLogMaxFileSize;
+    this.accessLogMaxFiles = builder.accessLogMaxFiles;
+    this.stateSnapshotPath = builder.stateSnapshotPath;
+    this.stateSnapshotInterval = builder.stateSnapshotInterval;
+    this.clusterBindAddress = builder.clusterBindAddress;
+    this.clusterSeeds = Collections.unmodifiableList(new ArrayList<>(builder.clusterSeeds));
+    this.clusterGossipInterval = builder.clusterGossipInterval;
+    this.clusterMemberTimeout = builder.clusterMemberTimeout;
+    this.priorityClasses = Collections.unmodifiableList(new ArrayList<>(builder.priorityClasses));
+    this.priorityRules = Collections.unmodifiableList(new ArrayList<>(builder.priorityRules));
+    this.priorityScheduling = builder.priorityScheduling;
+    this.maxConnectionsPerBackend = builder.maxConnectionsPerBackend;
+    this.tunnelPort = builder.tunnelPort;
+    this.tunnelIdleTimeout = builder.tunnelIdleTimeout;
+    List<BackendPool> pools = new ArrayList<>();
+    pools.add(defaultPool);
+    for (BackendPool pool : builder.backendPools) {
+      pools.add(builder.zone != null ? pool.withZone(builder.zone, builder.zoneMinHealthyFraction, builder.zoneLoadThreshold) : pool);
+    }
+    this.backendPools = Collections.unmodifiableList(pools);
+    this.routes = Collections.unmodifiableList(new ArrayList<>(builder.routes));
+    this.routingTable = new RoutingTable(routes, backendPools, defaultPool);
+    this.requestBodyMemoryThreshold = builder.requestBodyMemoryThreshold;
+    this.requestBodyMemoryBudget = builder.requestBodyMemoryBudget;
+    this.requestBodySpoolPath = builder.requestBodySpoolPath;
+    this.requestBodySpoolBudget = builder.requestBodySpoolBudget;
+    this.maxRequestBodySize = builder.maxRequestBodySize;
+    this.zone = builder.zone;
+    this.zoneMinHealthyFraction = builder.zoneMinHealthyFraction;
+    this.zoneLoadThreshold = builder.zoneLoadThreshold;
   }
   
   @Override
@@ -56,6 +137,161 @@ public class ImmutableLoadBalancerServerConfig implements LoadBalancerServerConf
   public int getMaxRetries() {
     return maxRetries;
   }
+
+  @Override
+  public int getHttp2Port() {
+    return http2Port;
+  }
+
+  @Override
+  public int getHttp2MaxConcurrentStreams() {
+    return http2MaxConcurrentStreams;
+  }
+
+  @Override
+  public int getHttp2ListenerShards() {
+    return http2ListenerShards;
+  }
+
+  @Override
+  public Path getAccessLogPath() {
+    return accessLogPath;
+  }
+
+  @Override
+  public int getAccessLogBufferSize() {
+    return accessLogBufferSize;
+  }
+
+  @Override
+  public AccessLogFullPolicy getAccessLogFullPolicy() {
+    return accessLogFullPolicy;
+  }
+
+  @Override
+  public long getAccessLogMaxFileSize() {
+    return accessLogMaxFileSize;
+  }
+
+  @Override
+  public int getAccessLogMaxFiles() {
+    return accessLogMaxFiles;
+  }
+
+  @Override
+  public Path getStateSnapshotPath() {
+    return stateSnapshotPath;
+  }
+
+  @Override
+  public int getStateSnapshotInterval() {
+    return stateSnapshotInterval;
+  }
+
+  @Override
+  public InetSocketAddress getClusterBindAddress() {
+    return clusterBindAddress;
+  }
+
+  @Override
+  public List<InetSocketAddress> getClusterSeeds() {
+    return clusterSeeds;
+  }
+
+  @Override
+  public int getClusterGossipInterval() {
+    return clusterGossipInterval;
+  }
+
+  @Override
+  public int getClusterMemberTimeout() {
+    return clusterMemberTimeout;
+  }
+
+  @Override
+  public List<PriorityClass> getPriorityClasses() {
+    return priorityClasses;
+  }
+
+  @Override
+  public List<PriorityRule> getPriorityRules() {
+    return priorityRules;
+  }
+
+  @Override
+  public PriorityScheduling getPriorityScheduling() {
+    return priorityScheduling;
+  }
+
+  @Override
+  public int getMaxConnectionsPerBackend() {
+    return maxConnectionsPerBackend;
+  }
+
+  @Override
+  public int getTunnelPort() {
+    return tunnelPort;
+  }
+
+  @Override
+  public int getTunnelIdleTimeout() {
+    return tunnelIdleTimeout;
+  }
+
+  @Override
+  public List<BackendPool> getBackendPools() {
+    return backendPools;
+  }
+
+  @Override
+  public List<RouteRule> getRoutes() {
+    return routes;
+  }
+
+  @Override
+  public RoutingTable getRoutingTable() {
+    return routingTable;
+  }
+
+  @Override
+  public int getRequestBodyMemoryThreshold() {
+    return requestBodyMemoryThreshold;
+  }
+
+  @Override
+  public long getRequestBodyMemoryBudget() {
+    return requestBodyMemoryBudget;
+  }
+
+  @Override
+  public Path getRequestBodySpoolPath() {
+    return requestBodySpoolPath;
+  }
+
+  @Override
+  public long getRequestBodySpoolBudget() {
+    return requestBodySpoolBudget;
+  }
+
+  @Override
+  public long getMaxRequestBodySize() {
+    return maxRequestBodySize;
+  }
+
+  @Override
+  public String getZone() {
+    return zone;
+  }
+
+  @Override
+  public double getZoneMinHealthyFraction() {
+    return zoneMinHealthyFraction;
+  }
+
+  @Override
+  public int getZoneLoadThreshold() {
+    return zoneLoadThreshold;
+  }
   
   public static class ImmutableLoadBalancerServerConfigBuilder {
     private int port = 8080;
@@ -64,6 +300,36 @@ public class ImmutableLoadBalancerServerConfig implements LoadBalancerServerConf
     private int healthCheckInterval = 10000;
     private int requestTimeout = 30000;
     private int maxRetries = 2;
+    private int http2Port = -1;
+    private int http2MaxConcurrentStreams = 100;
+    private int http2ListenerShards = 1;
+    private Path accessLogPath = null;
+    private int accessLogBufferSize = 16384;
+    private AccessLogFullPolicy accessLogFullPolicy = AccessLogFullPolicy.DROP;
+    private long accessLogMaxFileSize = 100L * 1024 * 1024;
+    private int accessLogMaxFiles = 5;
+    private Path stateSnapshotPath = null;
+    private int stateSnapshotInterval = 1000;
+    private InetSocketAddress clusterBindAddress = null;
+    private List<InetSocketAddress> clusterSeeds = new ArrayList<>();
+    private int clusterGossipInterval = 200;
+    private int clusterMemberTimeout = 2000;
+    private List<PriorityClass> priorityClasses = new ArrayList<>();
+    private List<PriorityRule> priorityRules = new ArrayList<>();
+    private PriorityScheduling priorityScheduling = PriorityScheduling.WEIGHTED_FAIR;
+    private int maxConnectionsPerBackend = 0;
+    private int tunnelPort = -1;
+    private int tunnelIdleTimeout = 300000;
+    private List<BackendPool> backendPools = new ArrayList<>();
+    private List<RouteRule> routes = new ArrayList<>();
+    private int requestBodyMemoryThreshold = 64 * 1024;
+    private long requestBodyMemoryBudget = 32L * 1024 * 1024;
+    private Path requestBodySpoolPath = Path.of(System.getProperty("java.io.tmpdir"));
+    private long requestBodySpoolBudget = 4L * 1024 * 1024 * 1024;
+    private long maxRequestBodySize = 1024L * 1024 * 1024;
+    private String zone = null;
+    private double zoneMinHealthyFraction = 0.7;
+    private int zoneLoadThreshold = 0;
     
     public ImmutableLoadBalancerServerConfigBuilder port(int port) { this.port = port; return this; }
     public ImmutableLoadBalancerServerConfigBuilder backends(List<Backend> backends) { 
@@ -86,11 +352,193 @@ public class ImmutableLoadBalancerServerConfig implements LoadBalancerServerConf
         this.maxRetries = retries; 
         return this; 
     }
+    public ImmutableLoadBalancerServerConfigBuilder http2Port(int http2Port) { 
+        this.http2Port = http2Port; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder http2MaxConcurrentStreams(int streams) { 
+        this.http2MaxConcurrentStreams = streams; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder http2ListenerShards(int shards) { 
+        this.http2ListenerShards = shards; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder accessLogPath(Path path) { 
+        this.accessLogPath = path; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder accessLogBufferSize(int records) { 
+        this.accessLogBufferSize = records; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder accessLogFullPolicy(AccessLogFullPolicy policy) { 
+        this.accessLogFullPolicy = policy; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder accessLogMaxFileSize(long bytes) { 
+        this.accessLogMaxFileSize = bytes; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder accessLogMaxFiles(int files) { 
+        this.accessLogMaxFiles = files; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder stateSnapshotPath(Path path) { 
+        this.stateSnapshotPath = path; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder stateSnapshotInterval(int ms) { 
+        this.stateSnapshotInterval = ms; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder clusterBindAddress(InetSocketAddress address) { 
+        this.clusterBindAddress = address; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder clusterSeeds(List<InetSocketAddress> seeds) { 
+        this.clusterSeeds = seeds; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder clusterGossipInterval(int ms) { 
+        this.clusterGossipInterval = ms; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder clusterMemberTimeout(int ms) { 
+        this.clusterMemberTimeout = ms; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder priorityClasses(List<PriorityClass> priorityClasses) { 
+        this.priorityClasses = priorityClasses; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder priorityRules(List<PriorityRule> priorityRules) { 
+        this.priorityRules = priorityRules; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder priorityScheduling(PriorityScheduling scheduling) { 
+        this.priorityScheduling = scheduling; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder maxConnectionsPerBackend(int connections) { 
+        this.maxConnectionsPerBackend = connections; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder tunnelPort(int tunnelPort) { 
+        this.tunnelPort = tunnelPort; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder tunnelIdleTimeout(int ms) { 
+        this.tunnelIdleTimeout = ms; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder backendPools(List<BackendPool> backendPools) { 
+        this.backendPools = backendPools; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder routes(List<RouteRule> routes) { 
+        this.routes = routes; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder requestBodyMemoryThreshold(int bytes) { 
+        this.requestBodyMemoryThreshold = bytes; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder requestBodyMemoryBudget(long bytes) { 
+        this.requestBodyMemoryBudget = bytes; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder requestBodySpoolPath(Path path) { 
+        this.requestBodySpoolPath = path; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder requestBodySpoolBudget(long bytes) { 
+        this.requestBodySpoolBudget = bytes; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder maxRequestBodySize(long bytes) { 
+        this.maxRequestBodySize = bytes; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder zone(String zone) { 
+        this.zone = zone; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder zoneMinHealthyFraction(double fraction) { 
+        this.zoneMinHealthyFraction = fraction; 
+        return this; 
+    }
+    public ImmutableLoadBalancerServerConfigBuilder zoneLoadThreshold(int connections) { 
+        this.zoneLoadThreshold = connections; 
+        return this; 
+    }
     
     public LoadBalancerServerConfig build() {
         if (backends.isEmpty()) {
             throw new IllegalArgumentException("At least one backend required");
         }
+        if (http2MaxConcurrentStreams < 1) {
+            throw new IllegalArgumentException("HTTP/2 max concurrent streams must be at least 1");
+        }
+        if (http2ListenerShards < 1) {
+            throw new IllegalArgumentException("HTTP/2 listener shards must be at least 1");
+        }
+        if (accessLogPath != null && (accessLogBufferSize < 1 || accessLogMaxFileSize < 1 || accessLogMaxFiles < 0)) {
+            throw new IllegalArgumentException("Access log buffer size and max file size must be positive");
+        }
+        if (stateSnapshotPath != null && stateSnapshotInterval < 1) {
+            throw new IllegalArgumentException("State snapshot interval must be positive");
+        }
+        if (clusterBindAddress != null && (clusterGossipInterval < 1 || clusterMemberTimeout <= clusterGossipInterval)) {
+            throw new IllegalArgumentException("Cluster gossip interval must be positive and shorter than the member timeout");
+        }
+        if (tunnelPort >= 0 && tunnelIdleTimeout < 1) {
+            throw new IllegalArgumentException("Tunnel idle timeout must be positive");
+        }
+        if (requestBodySpoolPath == null) {
+            throw new IllegalArgumentException("Request body spool path required");
+        }
+        if (requestBodyMemoryThreshold < 0 || requestBodyMemoryBudget < 0 || maxRequestBodySize < requestBodyMemoryThreshold || requestBodySpoolBudget < 0) {
+            throw new IllegalArgumentException("Request body limits must not be negative and the memory threshold must not exceed the max body size");
+        }
+        if (zone != null && (zoneMinHealthyFraction <= 0 || zoneMinHealthyFraction > 1 || zoneLoadThreshold < 0)) {
+            throw new IllegalArgumentException("Zone min healthy fraction must be above 0 and at most 1 and the load threshold must not be negative");
+        }
+        if (maxConnectionsPerBackend < 0) {
+            throw new IllegalArgumentException("Max connections per backend must not be negative");
+        }
+        Set<String> classNames = new HashSet<>();
+        for (PriorityClass priorityClass : priorityClasses) {
+            if (!classNames.add(priorityClass.getName())) {
+                throw new IllegalArgumentException("Duplicate priority class " + priorityClass.getName());
+            }
+            if (priorityClass.getWeight() < 1 || priorityClass.getQueueCapacity() < 0 || priorityClass.getMaxWaitMs() < 0) {
+                throw new IllegalArgumentException("Priority class " + priorityClass.getName() + " needs a positive weight and a non negative queue capacity and wait");
+            }
+        }
+        for (PriorityRule rule : priorityRules) {
+            if (!classNames.contains(rule.getPriorityClass())) {
+                throw new IllegalArgumentException("Priority rule refers to unknown class " + rule.getPriorityClass());
+            }
+        }
+        Set<String> poolNames = new HashSet<>();
+        poolNames.add(BackendPool.DEFAULT_POOL);
+        for (BackendPool pool : backendPools) {
+            if (!poolNames.add(pool.getName())) {
+                throw new IllegalArgumentException("Duplicate or reserved backend pool name " + pool.getName());
+            }
+            if (pool.getBackends().isEmpty()) {
+                throw new IllegalArgumentException("Backend pool " + pool.getName() + " needs at least one backend");
+            }
+            if (pool.getHealthCheckInterval() < 1 || pool.getMaxRetries() < 0) {
+                throw new IllegalArgumentException("Backend pool " + pool.getName() + " needs a positive health check interval and non negative retries");
+            }
+        }
+        for (RouteRule route : routes) {
+            if (!poolNames.contains(route.getPool())) {
+                throw new IllegalArgumentException("Route refers to unknown backend pool " + route.getPool());
+            }
+        }
         return new ImmutableLoadBalancerServerConfig(this);
     }
   }
@@ -1,8 +1,17 @@
 package com.rforristall.java.load.balancer.config;
 
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
 import java.util.List;
 
+import com.rforristall.java.load.balancer.accesslog.AccessLogFullPolicy;
+import com.rforristall.java.load.balancer.admission.PriorityClass;
+import com.rforristall.java.load.balancer.admission.PriorityRule;
+import com.rforristall.java.load.balancer.admission.PriorityScheduling;
 import com.rforristall.java.load.balancer.backend.Backend;
+import com.rforristall.java.load.balancer.routing.BackendPool;
+import com.rforristall.java.load.balancer.routing.RouteRule;
+import com.rforristall.java.load.balancer.routing.RoutingTable;
 import com.rforristall.java.load.balancer.strategy.BalancingStrategy;
 
 public interface LoadBalancerServerConfig {
@@ -42,5 +51,198 @@ public interface LoadBalancerServerConfig {
    * @return the number of times the server will try to make requests to a backend before marking it unhealthy and switching to a different one
    */
   public int getMaxRetries();
+  
+  /**
+   * Get the port that the load balancer will accept cleartext HTTP/2 (h2c with prior knowledge) connections on
+   * @return the HTTP/2 port number, or -1 if HTTP/2 is disabled
+   */
+  public int getHttp2Port();
+  
+  /**
+   * Get the number of streams a single HTTP/2 client connection is allowed to have open at the same time
+   * @return the value advertised in SETTINGS_MAX_CONCURRENT_STREAMS
+   */
+  public int getHttp2MaxConcurrentStreams();
+  
+  /**
+   * Get the number of HTTP/2 listener shards bound to the HTTP/2 port with SO_REUSEPORT, each shard has its own
+   * acceptor thread and metrics while sharing the balancing strategy. This is the only listener setting that shards,
+   * the HTTP/1.1 port stays on one JDK HttpServer since it binds its own channel and cannot set SO_REUSEPORT.
+   * @return the number of HTTP/2 listener shards
+   */
+  public int getHttp2ListenerShards();
+  
+  /**
+   * Get the file the access log is written to
+   * @return {@link Path} of the access log, or null if the access log is disabled
+   */
+  public Path getAccessLogPath();
+  
+  /**
+   * Get the number of records the access log ring buffer can hold before the full policy applies
+   * @return the ring buffer capacity, rounded up to a power of two when the buffer is created
+   */
+  public int getAccessLogBufferSize();
+  
+  /**
+   * Get what request threads do when the access log ring buffer is full
+   * @return {@link AccessLogFullPolicy} to either drop and count records or block until there is room
+   */
+  public AccessLogFullPolicy getAccessLogFullPolicy();
+  
+  /**
+   * Get the size in bytes the access log file may grow to before it is rotated
+   * @return maximum access log file size in bytes
+   */
+  public long getAccessLogMaxFileSize();
+  
+  /**
+   * Get the number of rotated access log files that are kept
+   * @return number of rotated files to keep
+   */
+  public int getAccessLogMaxFiles();
+
+  
+  /**
+   * Get the file backend state is periodically saved to and restored from on startup
+   * @return {@link Path} of the state snapshot, null when backend state is not persisted
+   */
+  public Path getStateSnapshotPath();
+  
+  /**
+   * Get the interval in milliseconds between backend state snapshots
+   * @return snapshot interval in milliseconds
+   */
+  public int getStateSnapshotInterval();
+
+  
+  /**
+   * Get the address cluster gossip is received on
+   * @return {@link InetSocketAddress} of the gossip socket, null when the load balancer does not run in cluster mode
+   */
+  public InetSocketAddress getClusterBindAddress();
+  
+  /**
+   * Get the cluster members contacted on startup, the rest of the cluster is learned from their gossip
+   * @return {@link List}<{@link InetSocketAddress}> of seed members
+   */
+  public List<InetSocketAddress> getClusterSeeds();
+  
+  /**
+   * Get the interval in milliseconds between gossip rounds
+   * @return gossip interval in milliseconds
+   */
+  public int getClusterGossipInterval();
+  
+  /**
+   * Get how long in milliseconds a member may stay silent before its backends are probed by the others
+   * @return member timeout in milliseconds
+   */
+  public int getClusterMemberTimeout();
+
+  
+  /**
+   * Get the priority classes requests wait in when no backend can take them, ordered from highest to lowest priority
+   * @return {@link List}<{@link PriorityClass}>, empty to fail requests at once when no backend is available
+   */
+  public List<PriorityClass> getPriorityClasses();
+  
+  /**
+   * Get the rules that assign requests to priority classes, requests no rule matches belong to the last class
+   * @return {@link List}<{@link PriorityRule}> evaluated in order
+   */
+  public List<PriorityRule> getPriorityRules();
+  
+  /**
+   * Get how queued requests of the priority classes are released
+   * @return {@link PriorityScheduling} used to release queued requests
+   */
+  public PriorityScheduling getPriorityScheduling();
+  
+  /**
+   * Get the number of requests each backend may serve at once before further requests are queued
+   * @return connection limit per backend, 0 for no limit
+   */
+  public int getMaxConnectionsPerBackend();
+
+  
+  /**
+   * Get the port upgrade requests such as WebSocket handshakes are accepted on and relayed to backends
+   * @return port of the tunnel listener, -1 if upgrades are not supported
+   */
+  public int getTunnelPort();
+  
+  /**
+   * Get how long in milliseconds a tunnel may go without traffic in either direction before it is closed
+   * @return tunnel idle timeout in milliseconds
+   */
+  public int getTunnelIdleTimeout();
+  
+  /**
+   * Get the pools requests can be routed to, the first is the default pool made of the top level backends, strategy, health check interval and retries
+   * @return {@link List}<{@link BackendPool}> including the default pool
+   */
+  public List<BackendPool> getBackendPools();
+  
+  /**
+   * Get the rules deciding which pool serves a request, in the order they were configured
+   * @return {@link List}<{@link RouteRule}> of the load balancer
+   */
+  public List<RouteRule> getRoutes();
+  
+  /**
+   * Get the routes compiled for lookup, requests no route matches are sent to the default pool
+   * @return {@link RoutingTable} choosing the pool of each request
+   */
+  public RoutingTable getRoutingTable();
+  
+  /**
+   * Get the size in bytes up to which request bodies are kept in memory, larger bodies are spooled to disk
+   * @return request body memory threshold in bytes
+   */
+  public int getRequestBodyMemoryThreshold();
+  
+  /**
+   * Get the bytes of memory shared by all request bodies kept in memory, bodies arriving once it is used up are spooled
+   * @return request body memory budget in bytes
+   */
+  public long getRequestBodyMemoryBudget();
+  
+  /**
+   * Get the directory request bodies are spooled to
+   * @return {@link Path} of the spool directory, the system temp directory unless configured
+   */
+  public Path getRequestBodySpoolPath();
+  
+  /**
+   * Get the bytes of spooled request bodies allowed at once across all requests, requests past it are answered with 503
+   * @return request body spool budget in bytes
+   */
+  public long getRequestBodySpoolBudget();
+  
+  /**
+   * Get the largest request body a single request may send, larger requests are answered with 413
+   * @return max request body size in bytes
+   */
+  public long getMaxRequestBodySize();
+  
+  /**
+   * Get the zone the load balancer runs in, requests are kept on backends of the same zone while it has capacity
+   * @return name of the zone, null to balance over all backends regardless of their zone
+   */
+  public String getZone();
+  
+  /**
+   * Get the fraction of the local zone's backends that must be healthy for all traffic to stay in the zone, below it
+   * traffic spills over to other zones in proportion to the capacity lost
+   * @return minimum healthy fraction between 0 and 1
+   */
+  public double getZoneMinHealthyFraction();
+  
+  /**
+   * Get the average active connections per healthy backend of the local zone above which traffic spills over to other zones
+   * @return load threshold in connections, 0 if only health decides
+   */
+  public int getZoneLoadThreshold();
 
 }
@@ -5,6 +5,7 @@ import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 import com.rforristall.java.load.balancer.backend.Backend;
 
@@ -13,13 +14,22 @@ public class HealthChecker {
   private final List<Backend> backends;
   private final HttpClient httpClient;
   private final int intervalMs;
+  private final Predicate<Backend> probeFilter;
   private final ScheduledExecutorService scheduler;
   private volatile boolean running = false;
   
   public HealthChecker(List<Backend> backends, HttpClient httpClient, int intervalMs) {
+      this(backends, httpClient, intervalMs, backend -> true);
+  }
+  
+  /**
+   * @param probeFilter decides on every round which backends this instance probes, the rest get their health from elsewhere
+   */
+  public HealthChecker(List<Backend> backends, HttpClient httpClient, int intervalMs, Predicate<Backend> probeFilter) {
       this.backends = backends;
       this.httpClient = httpClient;
       this.intervalMs = intervalMs;
+      this.probeFilter = probeFilter;
       this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
           Thread t = new Thread(r, "HealthChecker");
           t.setDaemon(true);
@@ -51,7 +61,9 @@ public class HealthChecker {
   
   private void checkAllBackends() {
       for (Backend backend : backends) {
-          backend.runHealthCheck(httpClient);
+          if (probeFilter.test(backend)) {
+              backend.runHealthCheck(httpClient);
+          }
       }
   }
 
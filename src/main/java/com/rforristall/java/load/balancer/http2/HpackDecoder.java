@@ -0,0 +1,144 @@
+package com.rforristall.java.load.balancer.http2;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decoder for HPACK header blocks (RFC 7541). A single instance is owned by each connection since
+ * the dynamic table is shared by every header block the peer sends, in the order they were sent.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+final class HpackDecoder {
+
+  private final HpackTable table = new HpackTable();
+
+  /**
+   * Upper bound the peer may raise the dynamic table to, this is what we advertise in SETTINGS_HEADER_TABLE_SIZE
+   */
+  private final int maxTableSizeLimit;
+
+  /**
+   * Largest decoded header list accepted, measured as RFC 9113 Section 6.5.2 defines SETTINGS_MAX_HEADER_LIST_SIZE.
+   * A small block of indexed references to a large dynamic table entry expands to many times its encoded size, so
+   * bounding the encoded block alone does not bound what a block decodes to
+   */
+  private final int maxHeaderListSize;
+
+  private byte[] block;
+  private int position;
+  private int limit;
+  private long headerListSize;
+
+  HpackDecoder(int maxTableSizeLimit, int maxHeaderListSize) {
+    this.maxTableSizeLimit = maxTableSizeLimit;
+    this.maxHeaderListSize = maxHeaderListSize;
+    table.setMaxSize(maxTableSizeLimit);
+  }
+
+  /**
+   * Decode a complete header block, with any CONTINUATION fragments already joined
+   * @param headerBlock encoded header block
+   * @param length number of bytes of the array that make up the block
+   * @return header fields in the order they were encoded
+   * @throws Http2Exception COMPRESSION_ERROR if the block is malformed, ENHANCE_YOUR_CALM if it decodes to more than the
+   * max header list size, both are connection errors since the dynamic table is out of sync once decoding stops midway
+   */
+  List<Map.Entry<String, String>> decode(byte[] headerBlock, int length) throws Http2Exception {
+    this.block = headerBlock;
+    this.position = 0;
+    this.limit = length;
+    List<Map.Entry<String, String>> headers = new ArrayList<>();
+    this.headerListSize = 0;
+    boolean sizeUpdateAllowed = true;
+    while (position < limit) {
+      int first = block[position] & 0xff;
+      if ((first & 0x80) != 0) {
+        int index = readInteger(7);
+        if (index == 0) {
+          throw Http2Exception.connectionError(Http2ErrorCode.COMPRESSION_ERROR, "Indexed header field with index 0");
+        }
+        addField(headers, Map.entry(table.getName(index), table.getValue(index)));
+        sizeUpdateAllowed = false;
+      } else if ((first & 0x40) != 0) {
+        Map.Entry<String, String> header = readLiteral(6);
+        table.add(header.getKey(), header.getValue());
+        addField(headers, header);
+        sizeUpdateAllowed = false;
+      } else if ((first & 0x20) != 0) {
+        if (!sizeUpdateAllowed) {
+          throw Http2Exception.connectionError(Http2ErrorCode.COMPRESSION_ERROR, "Dynamic table size update after header field");
+        }
+        int newSize = readInteger(5);
+        if (newSize > maxTableSizeLimit) {
+          throw Http2Exception.connectionError(Http2ErrorCode.COMPRESSION_ERROR, "Dynamic table size update above limit");
+        }
+        table.setMaxSize(newSize);
+      } else {
+        addField(headers, readLiteral(4));
+        sizeUpdateAllowed = false;
+      }
+    }
+    this.block = null;
+    return headers;
+  }
+
+  private void addField(List<Map.Entry<String, String>> headers, Map.Entry<String, String> field) throws Http2Exception {
+    // Strings are decoded as ISO-8859-1 so their length is their size in octets
+    headerListSize += field.getKey().length() + field.getValue().length() + 32;
+    if (headerListSize > maxHeaderListSize) {
+      throw Http2Exception.connectionError(Http2ErrorCode.ENHANCE_YOUR_CALM, "Decoded header list too large");
+    }
+    headers.add(field);
+  }
+
+  private Map.Entry<String, String> readLiteral(int prefixBits) throws Http2Exception {
+    int nameIndex = readInteger(prefixBits);
+    String name = nameIndex == 0 ? readString() : table.getName(nameIndex);
+    return Map.entry(name, readString());
+  }
+
+  private String readString() throws Http2Exception {
+    if (position >= limit) {
+      throw Http2Exception.connectionError(Http2ErrorCode.COMPRESSION_ERROR, "Truncated string literal");
+    }
+    boolean huffman = (block[position] & 0x80) != 0;
+    int length = readInteger(7);
+    if (length > limit - position) {
+      throw Http2Exception.connectionError(Http2ErrorCode.COMPRESSION_ERROR, "String literal longer than header block");
+    }
+    String value;
+    if (huffman) {
+      value = new String(HpackHuffman.decode(block, position, length), StandardCharsets.ISO_8859_1);
+    } else {
+      value = new String(block, position, length, StandardCharsets.ISO_8859_1);
+    }
+    position += length;
+    return value;
+  }
+
+  private int readInteger(int prefixBits) throws Http2Exception {
+    int prefixMask = (1 << prefixBits) - 1;
+    int value = block[position++] & prefixMask;
+    if (value < prefixMask) {
+      return value;
+    }
+    int shift = 0;
+    int next;
+    do {
+      if (position >= limit) {
+        throw Http2Exception.connectionError(Http2ErrorCode.COMPRESSION_ERROR, "Truncated integer");
+      }
+      if (shift > 21) {
+        throw Http2Exception.connectionError(Http2ErrorCode.COMPRESSION_ERROR, "Integer overflow");
+      }
+      next = block[position++] & 0xff;
+      value += (next & 0x7f) << shift;
+      shift += 7;
+    } while ((next & 0x80) != 0);
+    return value;
+  }
+
+}
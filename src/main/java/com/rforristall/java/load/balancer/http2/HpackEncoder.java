@@ -0,0 +1,110 @@
+package com.rforristall.java.load.balancer.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Encoder for HPACK header blocks (RFC 7541). Header blocks must be written to the connection in the same
+ * order they are encoded, so callers are expected to encode while holding the connection write lock.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+final class HpackEncoder {
+
+  /**
+   * Values longer than this are sent as literals without indexing so a single large header cannot flush the table
+   */
+  private static final int MAX_INDEXED_VALUE_LENGTH = 512;
+
+  /**
+   * Headers that carry credentials or are unique per response, they are never added to the dynamic table
+   */
+  private static final Set<String> NEVER_INDEXED = Set.of("authorization", "proxy-authorization", "set-cookie", "cookie");
+
+  private static final Set<String> NOT_INDEXED = Set.of("content-length", "date", "etag", "last-modified", "age", "expires");
+
+  private final HpackTable table = new HpackTable();
+
+  /**
+   * Table size the peer has allowed through SETTINGS_HEADER_TABLE_SIZE that has not been signalled yet, -1 when no update is pending
+   */
+  private int pendingMaxSize = -1;
+
+  /**
+   * Apply a new SETTINGS_HEADER_TABLE_SIZE from the peer, signalled at the start of the next header block
+   */
+  void setMaxTableSize(int maxSize) {
+    int newSize = Math.min(maxSize, HpackTable.DEFAULT_MAX_SIZE);
+    if (newSize != table.getMaxSize()) {
+      pendingMaxSize = newSize;
+    }
+  }
+
+  /**
+   * Encode the header fields into a header block
+   * @param headers lower case header names and values, pseudo headers first
+   * @return encoded header block
+   */
+  byte[] encode(List<Map.Entry<String, String>> headers) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+    if (pendingMaxSize != -1) {
+      table.setMaxSize(pendingMaxSize);
+      writeInteger(out, 0x20, 5, pendingMaxSize);
+      pendingMaxSize = -1;
+    }
+    for (Map.Entry<String, String> header : headers) {
+      String name = header.getKey();
+      String value = header.getValue();
+      int fieldIndex = table.findField(name, value);
+      if (fieldIndex != 0) {
+        writeInteger(out, 0x80, 7, fieldIndex);
+        continue;
+      }
+      int nameIndex = table.findName(name);
+      if (NEVER_INDEXED.contains(name)) {
+        writeInteger(out, 0x10, 4, nameIndex);
+      } else if (NOT_INDEXED.contains(name) || value.length() > MAX_INDEXED_VALUE_LENGTH) {
+        writeInteger(out, 0x00, 4, nameIndex);
+      } else {
+        writeInteger(out, 0x40, 6, nameIndex);
+        table.add(name, value);
+      }
+      if (nameIndex == 0) {
+        writeString(out, name);
+      }
+      writeString(out, value);
+    }
+    return out.toByteArray();
+  }
+
+  private void writeString(ByteArrayOutputStream out, String value) {
+    byte[] octets = value.getBytes(StandardCharsets.ISO_8859_1);
+    int huffmanLength = HpackHuffman.encodedLength(octets);
+    if (huffmanLength < octets.length) {
+      writeInteger(out, 0x80, 7, huffmanLength);
+      HpackHuffman.encode(octets, out);
+    } else {
+      writeInteger(out, 0x00, 7, octets.length);
+      out.write(octets, 0, octets.length);
+    }
+  }
+
+  private void writeInteger(ByteArrayOutputStream out, int flags, int prefixBits, int value) {
+    int prefixMask = (1 << prefixBits) - 1;
+    if (value < prefixMask) {
+      out.write(flags | value);
+      return;
+    }
+    out.write(flags | prefixMask);
+    value -= prefixMask;
+    while (value >= 0x80) {
+      out.write((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+}
@@ -0,0 +1,180 @@
+package com.rforristall.java.load.balancer.http2;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * HPACK indexing table made up of the fixed static table followed by a size bounded dynamic table
+ * (RFC 7541 Section 2.3). Names and values are ISO-8859-1 strings so that one char is one octet.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+final class HpackTable {
+
+  /**
+   * Default size in octets of the dynamic table before either side changes it through SETTINGS
+   */
+  static final int DEFAULT_MAX_SIZE = 4096;
+
+  /**
+   * Overhead in octets that HPACK adds to every dynamic table entry
+   */
+  private static final int ENTRY_OVERHEAD = 32;
+
+  private static final String[][] STATIC_TABLE = {
+      {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"},
+      {":path", "/index.html"}, {":scheme", "http"}, {":scheme", "https"}, {":status", "200"},
+      {":status", "204"}, {":status", "206"}, {":status", "304"}, {":status", "400"},
+      {":status", "404"}, {":status", "500"}, {"accept-charset", ""}, {"accept-encoding", "gzip, deflate"},
+      {"accept-language", ""}, {"accept-ranges", ""}, {"accept", ""}, {"access-control-allow-origin", ""},
+      {"age", ""}, {"allow", ""}, {"authorization", ""}, {"cache-control", ""},
+      {"content-disposition", ""}, {"content-encoding", ""}, {"content-language", ""}, {"content-length", ""},
+      {"content-location", ""}, {"content-range", ""}, {"content-type", ""}, {"cookie", ""},
+      {"date", ""}, {"etag", ""}, {"expect", ""}, {"expires", ""},
+      {"from", ""}, {"host", ""}, {"if-match", ""}, {"if-modified-since", ""},
+      {"if-none-match", ""}, {"if-range", ""}, {"if-unmodified-since", ""}, {"last-modified", ""},
+      {"link", ""}, {"location", ""}, {"max-forwards", ""}, {"proxy-authenticate", ""},
+      {"proxy-authorization", ""}, {"range", ""}, {"referer", ""}, {"refresh", ""},
+      {"retry-after", ""}, {"server", ""}, {"set-cookie", ""}, {"strict-transport-security", ""},
+      {"transfer-encoding", ""}, {"user-agent", ""}, {"vary", ""}, {"via", ""},
+      {"www-authenticate", ""}
+  };
+
+  /**
+   * Lowest static index for each header name, used by the encoder to reference names
+   */
+  private static final Map<String, Integer> STATIC_NAME_INDEX = new HashMap<>();
+
+  /**
+   * Static index for each name and value pair that has a non empty value
+   */
+  private static final Map<String, Integer> STATIC_FIELD_INDEX = new HashMap<>();
+
+  static {
+    for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+      STATIC_NAME_INDEX.put(STATIC_TABLE[i][0], i + 1);
+      if (!STATIC_TABLE[i][1].isEmpty()) {
+        STATIC_FIELD_INDEX.put(STATIC_TABLE[i][0] + '\0' + STATIC_TABLE[i][1], i + 1);
+      }
+    }
+  }
+
+  /**
+   * Dynamic entries with the most recently inserted entry first
+   */
+  private final ArrayDeque<String[]> dynamicEntries = new ArrayDeque<>();
+  private int size = 0;
+  private int maxSize = DEFAULT_MAX_SIZE;
+
+  /**
+   * Get the header name stored at the index
+   * @param index 1 based HPACK index spanning the static and dynamic table
+   * @return header name
+   * @throws Http2Exception if the index is not in either table
+   */
+  String getName(int index) throws Http2Exception {
+    return getEntry(index)[0];
+  }
+
+  /**
+   * Get the header value stored at the index
+   * @param index 1 based HPACK index spanning the static and dynamic table
+   * @return header value
+   * @throws Http2Exception if the index is not in either table
+   */
+  String getValue(int index) throws Http2Exception {
+    return getEntry(index)[1];
+  }
+
+  /**
+   * Find an index that holds both the name and value
+   * @return matching index or 0 if there is none
+   */
+  int findField(String name, String value) {
+    Integer staticIndex = STATIC_FIELD_INDEX.get(name + '\0' + value);
+    if (staticIndex != null) {
+      return staticIndex;
+    }
+    int index = STATIC_TABLE.length + 1;
+    for (String[] entry : dynamicEntries) {
+      if (entry[0].equals(name) && entry[1].equals(value)) {
+        return index;
+      }
+      index++;
+    }
+    return 0;
+  }
+
+  /**
+   * Find an index that holds the name, regardless of its value
+   * @return matching index or 0 if there is none
+   */
+  int findName(String name) {
+    Integer staticIndex = STATIC_NAME_INDEX.get(name);
+    if (staticIndex != null) {
+      return staticIndex;
+    }
+    int index = STATIC_TABLE.length + 1;
+    for (String[] entry : dynamicEntries) {
+      if (entry[0].equals(name)) {
+        return index;
+      }
+      index++;
+    }
+    return 0;
+  }
+
+  /**
+   * Insert an entry at the front of the dynamic table, evicting the oldest entries to make room
+   */
+  void add(String name, String value) {
+    int entrySize = name.length() + value.length() + ENTRY_OVERHEAD;
+    if (entrySize > maxSize) {
+      dynamicEntries.clear();
+      size = 0;
+      return;
+    }
+    size += entrySize;
+    evict();
+    dynamicEntries.addFirst(new String[] {name, value});
+  }
+
+  /**
+   * Change the maximum size of the dynamic table, evicting entries that no longer fit
+   */
+  void setMaxSize(int maxSize) {
+    this.maxSize = maxSize;
+    evict();
+  }
+
+  int getMaxSize() {
+    return maxSize;
+  }
+
+  private void evict() {
+    Iterator<String[]> oldestFirst = dynamicEntries.descendingIterator();
+    while (size > maxSize && oldestFirst.hasNext()) {
+      String[] entry = oldestFirst.next();
+      size -= entry[0].length() + entry[1].length() + ENTRY_OVERHEAD;
+      oldestFirst.remove();
+    }
+  }
+
+  private String[] getEntry(int index) throws Http2Exception {
+    if (index >= 1 && index <= STATIC_TABLE.length) {
+      return STATIC_TABLE[index - 1];
+    }
+    int dynamicIndex = index - STATIC_TABLE.length - 1;
+    if (dynamicIndex >= 0 && dynamicIndex < dynamicEntries.size()) {
+      Iterator<String[]> newestFirst = dynamicEntries.iterator();
+      for (int i = 0; i < dynamicIndex; i++) {
+        newestFirst.next();
+      }
+      return newestFirst.next();
+    }
+    throw Http2Exception.connectionError(Http2ErrorCode.COMPRESSION_ERROR, "Invalid HPACK index " + index);
+  }
+
+}
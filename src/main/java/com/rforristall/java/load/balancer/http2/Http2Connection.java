@@ -0,0 +1,854 @@
+package com.rforristall.java.load.balancer.http2;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Server side of a single HTTP/2 connection using prior knowledge (h2c). One reader thread parses frames and
+ * demultiplexes them into {@link Http2Stream}s, each stream is then served by the {@link HttpHandler} on the
+ * supplied executor so that a slow response never blocks the other streams on the connection.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+final class Http2Connection implements Runnable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(Http2Connection.class);
+
+  private static final byte[] CLIENT_PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+  private static final int FRAME_HEADER_LENGTH = 9;
+
+  private static final int TYPE_DATA = 0x0;
+  private static final int TYPE_HEADERS = 0x1;
+  private static final int TYPE_PRIORITY = 0x2;
+  private static final int TYPE_RST_STREAM = 0x3;
+  private static final int TYPE_SETTINGS = 0x4;
+  private static final int TYPE_PUSH_PROMISE = 0x5;
+  private static final int TYPE_PING = 0x6;
+  private static final int TYPE_GOAWAY = 0x7;
+  private static final int TYPE_WINDOW_UPDATE = 0x8;
+  private static final int TYPE_CONTINUATION = 0x9;
+
+  private static final int FLAG_END_STREAM = 0x1;
+  private static final int FLAG_ACK = 0x1;
+  private static final int FLAG_END_HEADERS = 0x4;
+  private static final int FLAG_PADDED = 0x8;
+  private static final int FLAG_PRIORITY = 0x20;
+
+  private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+  private static final int SETTINGS_ENABLE_PUSH = 0x2;
+  private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+  private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+  private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+  private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+  /**
+   * Flow control window every connection and stream starts with before SETTINGS or WINDOW_UPDATE change it
+   */
+  private static final int DEFAULT_WINDOW_SIZE = 65535;
+  private static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+  private static final int MAX_ALLOWED_FRAME_SIZE = 16777215;
+
+  /**
+   * Receive window granted to each stream, large enough to upload a request body without stalling on round trips
+   */
+  private static final int LOCAL_STREAM_WINDOW_SIZE = 1 << 20;
+
+  /**
+   * Receive window granted to the connection as a whole, shared by all of its streams
+   */
+  private static final int LOCAL_CONNECTION_WINDOW_SIZE = 1 << 24;
+
+  /**
+   * Largest header block, after joining CONTINUATION frames, that will be buffered for decoding, and largest header
+   * list it may decode to
+   */
+  private static final int MAX_HEADER_LIST_SIZE = 64 * 1024;
+
+  /**
+   * Request headers that are connection specific and make an HTTP/2 request malformed (RFC 9113 Section 8.2.2)
+   */
+  private static final Set<String> CONNECTION_HEADERS = Set.of("connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade");
+
+  private final Http2Listener listener;
+  private final Socket socket;
+  private final HttpHandler handler;
+  private final Executor executor;
+  private final int maxConcurrentStreams;
+  private final InetSocketAddress remoteAddress;
+  private final InetSocketAddress localAddress;
+  private final DataInputStream in;
+  private final OutputStream out;
+
+  private final Map<Integer, Http2Stream> streams = new ConcurrentHashMap<>();
+  private final HpackDecoder hpackDecoder = new HpackDecoder(HpackTable.DEFAULT_MAX_SIZE, MAX_HEADER_LIST_SIZE);
+
+  /**
+   * Guards the socket output and the HPACK encoder, header blocks must be encoded in the order they are written
+   */
+  private final ReentrantLock writeLock = new ReentrantLock();
+  private final HpackEncoder hpackEncoder = new HpackEncoder();
+
+  /**
+   * Guards the send side flow control windows of the connection and all of its streams
+   */
+  private final ReentrantLock flowLock = new ReentrantLock();
+  private final Condition windowUpdated = flowLock.newCondition();
+  private int connectionSendWindow = DEFAULT_WINDOW_SIZE;
+  private int peerInitialWindowSize = DEFAULT_WINDOW_SIZE;
+  private volatile int peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+
+  private final AtomicInteger connectionReceiveWindow = new AtomicInteger(LOCAL_CONNECTION_WINDOW_SIZE);
+  private final AtomicInteger connectionUnacknowledgedBytes = new AtomicInteger(0);
+
+  /**
+   * Highest stream id opened by the peer, only updated from the reader thread
+   */
+  private volatile int lastStreamId = 0;
+  private volatile boolean goingAway = false;
+  private volatile boolean closed = false;
+
+  /**
+   * Header block being assembled from HEADERS and CONTINUATION frames, only used by the reader thread
+   */
+  private final ByteArrayOutputStream headerBlock = new ByteArrayOutputStream();
+  private int headerBlockStreamId = 0;
+  private boolean headerBlockEndStream = false;
+
+  /**
+   * Set when the HEADERS frame made the stream depend on itself, the stream is only reset once the block is decoded
+   */
+  private boolean headerBlockSelfDependent = false;
+
+  Http2Connection(Http2Listener listener, Socket socket, HttpHandler handler, Executor executor, int maxConcurrentStreams) throws IOException {
+    this.listener = listener;
+    this.socket = socket;
+    this.handler = handler;
+    this.executor = executor;
+    this.maxConcurrentStreams = maxConcurrentStreams;
+    this.remoteAddress = (InetSocketAddress) socket.getRemoteSocketAddress();
+    this.localAddress = (InetSocketAddress) socket.getLocalSocketAddress();
+    this.in = new DataInputStream(socket.getInputStream());
+    this.out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+  }
+
+  @Override
+  public void run() {
+    try {
+      readPreface();
+      writeInitialSettings();
+      readFrames();
+    } catch (Http2Exception ex) {
+      LOGGER.debug("HTTP/2 connection error from {}: {}", remoteAddress, ex.getMessage());
+      goAway(ex.getErrorCode(), ex.getMessage());
+    } catch (IOException ex) {
+      if (!closed) {
+        LOGGER.debug("HTTP/2 connection from {} ended: {}", remoteAddress, ex.getMessage());
+      }
+    } finally {
+      close();
+    }
+  }
+
+  /**
+   * Stop accepting new streams, the streams already in flight are allowed to complete
+   */
+  void shutdown() {
+    goingAway = true;
+    try {
+      writeGoAway(Http2ErrorCode.NO_ERROR, "Server shutting down");
+    } catch (IOException ex) {
+      close();
+    }
+  }
+
+  int getActiveStreams() {
+    return streams.size();
+  }
+
+  /**
+   * Close the socket and reset every stream that has not completed
+   */
+  void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    for (Http2Stream stream : streams.values()) {
+      stream.reset(Http2ErrorCode.CANCEL);
+    }
+    streams.clear();
+    flowLock.lock();
+    try {
+      windowUpdated.signalAll();
+    } finally {
+      flowLock.unlock();
+    }
+    try {
+      socket.close();
+    } catch (IOException ex) {
+      LOGGER.debug("Failed to close HTTP/2 connection from {}", remoteAddress, ex);
+    }
+    listener.connectionClosed(this);
+  }
+
+  private void readPreface() throws IOException {
+    byte[] preface = new byte[CLIENT_PREFACE.length];
+    in.readFully(preface);
+    if (!Arrays.equals(preface, CLIENT_PREFACE)) {
+      throw Http2Exception.connectionError(Http2ErrorCode.PROTOCOL_ERROR, "Invalid connection preface");
+    }
+  }
+
+  private void writeInitialSettings() throws IOException {
+    byte[] settings = new byte[18];
+    putSetting(settings, 0, SETTINGS_MAX_CONCURRENT_STREAMS, maxConcurrentStreams);
+    putSetting(settings, 6, SETTINGS_INITIAL_WINDOW_SIZE, LOCAL_STREAM_WINDOW_SIZE);
+    putSetting(settings, 12, SETTINGS_MAX_HEADER_LIST_SIZE, MAX_HEADER_LIST_SIZE);
+    writeLock.lock();
+    try {
+      writeFrameHeader(settings.length, TYPE_SETTINGS, 0, 0);
+      out.write(settings);
+      writeWindowUpdateFrame(0, LOCAL_CONNECTION_WINDOW_SIZE - DEFAULT_WINDOW_SIZE);
+      out.flush();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private void readFrames() throws IOException {
+    byte[] header = new byte[FRAME_HEADER_LENGTH];
+    while (!closed) {
+      try {
+        in.readFully(header);
+      } catch (EOFException ex) {
+        return;
+      }
+      int length = ((header[0] & 0xff) << 16) | ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+      int type = header[3] & 0xff;
+      int flags = header[4] & 0xff;
+      int streamId = readInt(header, 5) & 0x7fffffff;
+      if (length > DEFAULT_MAX_FRAME_SIZE) {
+        throw Http2Exception.connectionError(Http2ErrorCode.FRAME_SIZE_ERROR, "Frame of " + length + " bytes exceeds SETTINGS_MAX_FRAME_SIZE");
+      }
+      byte[] payload = new byte[length];
+      in.readFully(payload);
+      if (headerBlockStreamId != 0 && (type != TYPE_CONTINUATION || streamId != headerBlockStreamId)) {
+        throw Http2Exception.connectionError(Http2ErrorCode.PROTOCOL_ERROR, "Expected CONTINUATION for stream " + headerBlockStreamId);
+      }
+      try {
+        switch (type) {
+          case TYPE_DATA -> onData(streamId, flags, payload);
+          case TYPE_HEADERS -> onHeaders(streamId, flags, payload);
+          case TYPE_PRIORITY -> onPriority(streamId, payload);
+          case TYPE_RST_STREAM -> onRstStream(streamId, payload);
+          case TYPE_SETTINGS -> onSettings(streamId, flags, payload);
+          case TYPE_PUSH_PROMISE -> throw Http2Exception.connectionError(Http2ErrorCode.PROTOCOL_ERROR, "Clients cannot send PUSH_PROMISE");
+          case TYPE_PING -> onPing(streamId, flags, payload);
+          case TYPE_GOAWAY -> onGoAway(streamId);
+          case TYPE_WINDOW_UPDATE -> onWindowUpdate(streamId, payload);
+          case TYPE_CONTINUATION -> onContinuation(streamId, flags, payload);
+          default -> {
+            // Unknown frame types must be ignored
+          }
+        }
+      } catch (Http2Exception ex) {
+        if (ex.isConnectionError()) {
+          throw ex;
+        }
+        LOGGER.debug("HTTP/2 stream {} error from {}: {}", ex.getStreamId(), remoteAddress, ex.getMessage());
+        Http2Stream stream = streams.get(ex.getStreamId());
+        if (stream != null) {
+          resetStream(stream, ex.getErrorCode());
+        } else {
+          writeRstStream(ex.getStreamId(), ex.getErrorCode());
+        }
+      }
+    }
+  }
+
+  private void onData(int streamId, int flags, byte[] payload) throws IOException {
+    if (streamId == 0) {
+      throw Http2Exception.connectionError(Http2ErrorCode.PROTOCOL_ERROR, "DATA on stream 0");
+    }
+    if (connectionReceiveWindow.addAndGet(-payload.length) < 0) {
+      throw Http2Exception.connectionError(Http2ErrorCode.FLOW_CONTROL_ERROR, "Connection receive window exceeded");
+    }
+    int padding = readPadding(flags, payload);
+    int dataLength = payload.length - padding - ((flags & FLAG_PADDED) != 0 ? 1 : 0);
+    Http2Stream stream = streams.get(streamId);
+    if (stream == null) {
+      creditConnection(payload.length);
+      if (streamId > lastStreamId) {
+        throw Http2Exception.connectionError(Http2ErrorCode.PROTOCOL_ERROR, "DATA on idle stream " + streamId);
+      }
+      throw Http2Exception.streamError(Http2ErrorCode.STREAM_CLOSED, streamId, "DATA on closed stream");
+    }
+    try {
+      stream.receiveData(payload, payload.length - padding - dataLength, dataLength, payload.length);
+    } catch (Http2Exception ex) {
+      creditConnection(payload.length);
+      throw ex;
+    }
+    // Padding is never read by the handler so it is returned to the windows straight away
+    if (payload.length > dataLength) {
+      consumed(stream, payload.length - dataLength);
+    }
+    if ((flags & FLAG_END_STREAM) != 0) {
+      stream.receiveEnd();
+      removeIfComplete(stream);
+    }
+  }
+
+  private void onHeaders(int streamId, int flags, byte[] payload) throws IOException {
+    if (streamId == 0) {
+      throw Http2Exception.connectionError(Http2ErrorCode.PROTOCOL_ERROR, "HEADERS on stream 0");
+    }
+    int padding = readPadding(flags, payload);
+    int offset = (flags & FLAG_PADDED) != 0 ? 1 : 0;
+    headerBlockSelfDependent = false;
+    if ((flags & FLAG_PRIORITY) != 0) {
+      if (offset + 5 > payload.length) {
+        throw Http2Exception.connectionError(Http2ErrorCode.FRAME_SIZE_ERROR, "HEADERS too short for priority fields");
+      }
+      headerBlockSelfDependent = (readInt(payload, offset) & 0x7fffffff) == streamId;
+      offset += 5;
+    }
+    if (offset + padding > payload.length) {
+      throw Http2Exception.connectionError(Http2ErrorCode.PROTOCOL_ERROR, "HEADERS padding exceeds payload");
+    }
+    headerBlock.reset();
+    headerBlock.write(payload, offset, payload.length - offset - padding);
+    headerBlockEndStream = (flags & FLAG_END_STREAM) != 0;
+    if ((flags & FLAG_END_HEADERS) != 0) {
+      completeHeaders(streamId);
+    } else {
+      headerBlockStreamId = streamId;
+    }
+  }
+
+  private void onContinuation(int streamId, int flags, byte[] payload) throws IOException {
+    if (headerBlockStreamId == 0) {
+      throw Http2Exception.connectionError(Http2ErrorCode.PROTOCOL_ERROR, "CONTINUATION without HEADERS");
+    }
+    if (headerBlock.size() + payload.length > MAX_HEADER_LIST_SIZE) {
+      throw Http2Exception.connectionError(Http2ErrorCode.ENHANCE_YOUR_CALM, "Header block too large");
+    }
+    headerBlock.write(payload, 0, payload.length);
+    if ((flags & FLAG_END_HEADERS) != 0) {
+      headerBlockStreamId = 0;
+      completeHeaders(streamId);
+    }
+  }
+
+  private void completeHeaders(int streamId) throws IOException {
+    // The block is always decoded, even for refused streams, to keep the HPACK dynamic table in sync
+    List<Map.Entry<String, String>> fields = hpackDecoder.decode(headerBlock.toByteArray(), headerBlock.size());
+    Http2Stream existing = streams.get(streamId);
+    if (existing != null) {
+      if (headerBlockSelfDependent) {
+        throw Http2Exception.streamError(Http2ErrorCode.PROTOCOL_ERROR, streamId, "Stream depends on itself");
+      }
+      if (!headerBlockEndStream) {
+        throw Http2Exception.streamError(Http2ErrorCode.PROTOCOL_ERROR, streamId, "Trailers without END_STREAM");
+      }
+      existing.receiveEnd();
+      removeIfComplete(existing);
+      return;
+    }
+    if (streamId % 2 == 0) {
+      throw Http2Exception.connectionError(Http2ErrorCode.PROTOCOL_ERROR, "Invalid stream id " + streamId);
+    }
+    if (streamId <= lastStreamId) {
+      throw Http2Exception.streamError(Http2ErrorCode.STREAM_CLOSED, streamId, "HEADERS on closed stream");
+    }
+    lastStreamId = streamId;
+    if (headerBlockSelfDependent) {
+      throw Http2Exception.streamError(Http2ErrorCode.PROTOCOL_ERROR, streamId, "Stream depends on itself");
+    }
+    if (goingAway) {
+      throw Http2Exception.streamError(Http2ErrorCode.REFUSED_STREAM, streamId, "Connection is shutting down");
+    }
+    if (streams.size() >= maxConcurrentStreams) {
+      throw Http2Exception.streamError(Http2ErrorCode.REFUSED_STREAM, streamId, "SETTINGS_MAX_CONCURRENT_STREAMS exceeded");
+    }
+
+    String method = null;
+    String path = null;
+    String scheme = null;
+    String authority = null;
+    Headers requestHeaders = new Headers();
+    List<String> cookies = new ArrayList<>();
+    boolean regularHeaderSeen = false;
+    for (Map.Entry<String, String> field : fields) {
+      String name = field.getKey();
+      String value = field.getValue();
+      if (name.startsWith(":")) {
+        if (regularHeaderSeen) {
+          throw Http2Exception.streamError(Http2ErrorCode.PROTOCOL_ERROR, streamId, "Pseudo header after regular header");
+        }
+        switch (name) {
+          case ":method" -> method = value;
+          case ":path" -> path = value;
+          case ":scheme" -> scheme = value;
+          case ":authority" -> authority = value;
+          default -> throw Http2Exception.streamError(Http2ErrorCode.PROTOCOL_ERROR, streamId, "Unknown pseudo header " + name);
+        }
+        continue;
+      }
+      regularHeaderSeen = true;
+      if (!name.equals(name.toLowerCase()) || CONNECTION_HEADERS.contains(name) || (name.equals("te") && !value.equals("trailers"))) {
+        throw Http2Exception.streamError(Http2ErrorCode.PROTOCOL_ERROR, streamId, "Malformed header " + name);
+      }
+      if (name.equals("cookie")) {
+        cookies.add(value);
+      } else {
+        requestHeaders.add(name, value);
+      }
+    }
+    if (method == null || path == null || scheme == null || path.isEmpty()) {
+      throw Http2Exception.streamError(Http2ErrorCode.PROTOCOL_ERROR, streamId, "Missing required pseudo header");
+    }
+    // Cookie crumbs are joined back into a single header before being forwarded over HTTP/1.1 (RFC 9113 Section 8.2.3)
+    if (!cookies.isEmpty()) {
+      requestHeaders.set("cookie", String.join("; ", cookies));
+    }
+    if (authority != null && !requestHeaders.containsKey("host")) {
+      requestHeaders.set("host", authority);
+    }
+    URI requestUri;
+    try {
+      requestUri = URI.create(path);
+    } catch (IllegalArgumentException ex) {
+      throw Http2Exception.streamError(Http2ErrorCode.PROTOCOL_ERROR, streamId, "Invalid :path");
+    }
+
+    Http2Stream stream;
+    flowLock.lock();
+    try {
+      // The response buffer is sized by our own frame size rather than the peer's, which may advertise up to 16MB per stream,
+      // writeData still splits larger writes at the peer's limit
+      stream = new Http2Stream(this, streamId, LOCAL_STREAM_WINDOW_SIZE, peerInitialWindowSize, DEFAULT_MAX_FRAME_SIZE);
+    } finally {
+      flowLock.unlock();
+    }
+    if (headerBlockEndStream) {
+      stream.receiveEnd();
+    }
+    streams.put(streamId, stream);
+    Http2Exchange exchange = new Http2Exchange(stream, method, requestUri, requestHeaders, remoteAddress, localAddress);
+    executor.execute(() -> serve(stream, exchange));
+  }
+
+  private void serve(Http2Stream stream, Http2Exchange exchange) {
+    try {
+      handler.handle(exchange);
+    } catch (Exception ex) {
+      LOGGER.warn("Handler failed for HTTP/2 stream {} from {}", stream.getId(), remoteAddress, ex);
+    } finally {
+      try {
+        exchange.close();
+      } catch (RuntimeException ex) {
+        LOGGER.debug("Failed to close HTTP/2 stream {}", stream.getId(), ex);
+      }
+    }
+  }
+
+  private void onPriority(int streamId, byte[] payload) throws Http2Exception {
+    if (streamId == 0) {
+      throw Http2Exception.connectionError(Http2ErrorCode.PROTOCOL_ERROR, "PRIORITY on stream 0");
+    }
+    if (payload.length != 5) {
+      throw Http2Exception.streamError(Http2ErrorCode.FRAME_SIZE_ERROR, streamId, "PRIORITY frame must be 5 bytes");
+    }
+  }
+
+  private void onRstStream(int streamId, byte[] payload) throws Http2Exception {
+    if (streamId == 0) {
+      throw Http2Exception.connectionError(Http2ErrorCode.PROTOCOL_ERROR, "RST_STREAM on stream 0");
+    }
+    if (payload.length != 4) {
+      throw Http2Exception.connectionError(Http2ErrorCode.FRAME_SIZE_ERROR, "RST_STREAM frame must be 4 bytes");
+    }
+    if (streamId > lastStreamId) {
+      throw Http2Exception.connectionError(Http2ErrorCode.PROTOCOL_ERROR, "RST_STREAM on idle stream " + streamId);
+    }
+    Http2Stream stream = streams.remove(streamId);
+    if (stream != null) {
+      creditConnection(stream.reset(Http2ErrorCode.fromCode(readInt(payload, 0))));
+      signalWindowUpdated();
+    }
+  }
+
+  private void onSettings(int streamId, int flags, byte[] payload) throws IOException {
+    if (streamId != 0) {
+      throw Http2Exception.connectionError(Http2ErrorCode.PROTOCOL_ERROR, "SETTINGS on stream " + streamId);
+    }
+    if ((flags & FLAG_ACK) != 0) {
+      if (payload.length != 0) {
+        throw Http2Exception.connectionError(Http2ErrorCode.FRAME_SIZE_ERROR, "SETTINGS ACK with payload");
+      }
+      return;
+    }
+    if (payload.length % 6 != 0) {
+      throw Http2Exception.connectionError(Http2ErrorCode.FRAME_SIZE_ERROR, "SETTINGS length must be a multiple of 6");
+    }
+    for (int offset = 0; offset < payload.length; offset += 6) {
+      int identifier = ((payload[offset] & 0xff) << 8) | (payload[offset + 1] & 0xff);
+      int value = readInt(payload, offset + 2);
+      switch (identifier) {
+        case SETTINGS_HEADER_TABLE_SIZE -> {
+          writeLock.lock();
+          try {
+            hpackEncoder.setMaxTableSize(value < 0 ? Integer.MAX_VALUE : value);
+          } finally {
+            writeLock.unlock();
+          }
+        }
+        case SETTINGS_ENABLE_PUSH -> {
+          if (value != 0 && value != 1) {
+            throw Http2Exception.connectionError(Http2ErrorCode.PROTOCOL_ERROR, "Invalid SETTINGS_ENABLE_PUSH");
+          }
+        }
+        case SETTINGS_INITIAL_WINDOW_SIZE -> updateInitialWindowSize(value);
+        case SETTINGS_MAX_FRAME_SIZE -> {
+          if (value < DEFAULT_MAX_FRAME_SIZE || value > MAX_ALLOWED_FRAME_SIZE) {
+            throw Http2Exception.connectionError(Http2ErrorCode.PROTOCOL_ERROR, "Invalid SETTINGS_MAX_FRAME_SIZE");
+          }
+          peerMaxFrameSize = value;
+        }
+        default -> {
+          // SETTINGS_MAX_CONCURRENT_STREAMS and SETTINGS_MAX_HEADER_LIST_SIZE only limit server push and are not used
+        }
+      }
+    }
+    writeLock.lock();
+    try {
+      writeFrameHeader(0, TYPE_SETTINGS, FLAG_ACK, 0);
+      out.flush();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private void updateInitialWindowSize(int value) throws Http2Exception {
+    if (value < 0) {
+      throw Http2Exception.connectionError(Http2ErrorCode.FLOW_CONTROL_ERROR, "SETTINGS_INITIAL_WINDOW_SIZE above maximum");
+    }
+    flowLock.lock();
+    try {
+      int delta = value - peerInitialWindowSize;
+      for (Http2Stream stream : streams.values()) {
+        long updated = (long) stream.getSendWindow() + delta;
+        if (updated > Integer.MAX_VALUE) {
+          throw Http2Exception.connectionError(Http2ErrorCode.FLOW_CONTROL_ERROR, "Stream window overflow");
+        }
+        stream.setSendWindow((int) updated);
+      }
+      peerInitialWindowSize = value;
+      windowUpdated.signalAll();
+    } finally {
+      flowLock.unlock();
+    }
+  }
+
+  private void onPing(int streamId, int flags, byte[] payload) throws IOException {
+    if (streamId != 0) {
+      throw Http2Exception.connectionError(Http2ErrorCode.PROTOCOL_ERROR, "PING on stream " + streamId);
+    }
+    if (payload.length != 8) {
+      throw Http2Exception.connectionError(Http2ErrorCode.FRAME_SIZE_ERROR, "PING frame must be 8 bytes");
+    }
+    if ((flags & FLAG_ACK) == 0) {
+      writeFrame(TYPE_PING, FLAG_ACK, 0, payload, 0, payload.length);
+    }
+  }
+
+  private void onGoAway(int streamId) throws Http2Exception {
+    if (streamId != 0) {
+      throw Http2Exception.connectionError(Http2ErrorCode.PROTOCOL_ERROR, "GOAWAY on stream " + streamId);
+    }
+    goingAway = true;
+  }
+
+  private void onWindowUpdate(int streamId, byte[] payload) throws Http2Exception {
+    if (payload.length != 4) {
+      throw Http2Exception.connectionError(Http2ErrorCode.FRAME_SIZE_ERROR, "WINDOW_UPDATE frame must be 4 bytes");
+    }
+    int increment = readInt(payload, 0) & 0x7fffffff;
+    if (increment == 0) {
+      if (streamId == 0) {
+        throw Http2Exception.connectionError(Http2ErrorCode.PROTOCOL_ERROR, "WINDOW_UPDATE with 0 increment");
+      }
+      throw Http2Exception.streamError(Http2ErrorCode.PROTOCOL_ERROR, streamId, "WINDOW_UPDATE with 0 increment");
+    }
+    flowLock.lock();
+    try {
+      if (streamId == 0) {
+        if ((long) connectionSendWindow + increment > Integer.MAX_VALUE) {
+          throw Http2Exception.connectionError(Http2ErrorCode.FLOW_CONTROL_ERROR, "Connection window overflow");
+        }
+        connectionSendWindow += increment;
+      } else {
+        Http2Stream stream = streams.get(streamId);
+        if (stream == null) {
+          return;
+        }
+        if ((long) stream.getSendWindow() + increment > Integer.MAX_VALUE) {
+          throw Http2Exception.streamError(Http2ErrorCode.FLOW_CONTROL_ERROR, streamId, "Stream window overflow");
+        }
+        stream.setSendWindow(stream.getSendWindow() + increment);
+      }
+      windowUpdated.signalAll();
+    } finally {
+      flowLock.unlock();
+    }
+  }
+
+  /**
+   * Return bytes the handler has read from a stream to the peer's send windows, updates are batched until half
+   * of a window has been consumed so that small reads do not each cost a WINDOW_UPDATE frame
+   */
+  void consumed(Http2Stream stream, int bytes) throws IOException {
+    int streamIncrement = stream.creditConsumed(bytes);
+    if (streamIncrement > 0 && !closed) {
+      writeLock.lock();
+      try {
+        writeWindowUpdateFrame(stream.getId(), streamIncrement);
+        out.flush();
+      } finally {
+        writeLock.unlock();
+      }
+    }
+    creditConnection(bytes);
+  }
+
+  private void creditConnection(int bytes) {
+    if (bytes <= 0 || connectionUnacknowledgedBytes.addAndGet(bytes) < LOCAL_CONNECTION_WINDOW_SIZE / 2) {
+      return;
+    }
+    int increment = connectionUnacknowledgedBytes.getAndSet(0);
+    if (increment <= 0 || closed) {
+      return;
+    }
+    connectionReceiveWindow.addAndGet(increment);
+    writeLock.lock();
+    try {
+      writeWindowUpdateFrame(0, increment);
+      out.flush();
+    } catch (IOException ex) {
+      close();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  void writeHeaders(Http2Stream stream, List<Map.Entry<String, String>> headers, boolean endStream) throws IOException {
+    writeLock.lock();
+    try {
+      ensureOpen();
+      byte[] block = hpackEncoder.encode(headers);
+      int maxFrameSize = peerMaxFrameSize;
+      int length = Math.min(block.length, maxFrameSize);
+      int flags = (endStream ? FLAG_END_STREAM : 0) | (length == block.length ? FLAG_END_HEADERS : 0);
+      writeFrameHeader(length, TYPE_HEADERS, flags, stream.getId());
+      out.write(block, 0, length);
+      for (int offset = length; offset < block.length; offset += length) {
+        length = Math.min(block.length - offset, maxFrameSize);
+        writeFrameHeader(length, TYPE_CONTINUATION, offset + length == block.length ? FLAG_END_HEADERS : 0, stream.getId());
+        out.write(block, offset, length);
+      }
+      out.flush();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Write response body bytes as DATA frames, blocking while the connection or stream window is exhausted
+   */
+  void writeData(Http2Stream stream, byte[] data, int offset, int length, boolean endStream) throws IOException {
+    if (length == 0 && endStream) {
+      writeFrame(TYPE_DATA, FLAG_END_STREAM, stream.getId(), data, offset, 0);
+      return;
+    }
+    while (length > 0) {
+      int allowed = acquireSendWindow(stream, Math.min(length, peerMaxFrameSize));
+      boolean last = endStream && allowed == length;
+      writeFrame(TYPE_DATA, last ? FLAG_END_STREAM : 0, stream.getId(), data, offset, allowed);
+      offset += allowed;
+      length -= allowed;
+    }
+  }
+
+  private int acquireSendWindow(Http2Stream stream, int wanted) throws IOException {
+    flowLock.lock();
+    try {
+      while (connectionSendWindow <= 0 || stream.getSendWindow() <= 0) {
+        if (closed || stream.isReset()) {
+          throw new IOException("Stream " + stream.getId() + " was reset");
+        }
+        windowUpdated.await();
+      }
+      int allowed = Math.min(wanted, Math.min(connectionSendWindow, stream.getSendWindow()));
+      connectionSendWindow -= allowed;
+      stream.setSendWindow(stream.getSendWindow() - allowed);
+      return allowed;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for flow control window", ex);
+    } finally {
+      flowLock.unlock();
+    }
+  }
+
+  /**
+   * Called once the response has been fully sent, a request body the handler never read is cancelled
+   */
+  void streamLocalClosed(Http2Stream stream) throws IOException {
+    if (!stream.isRemoteClosed()) {
+      resetStream(stream, Http2ErrorCode.NO_ERROR);
+      return;
+    }
+    removeIfComplete(stream);
+  }
+
+  void resetStream(Http2Stream stream, Http2ErrorCode errorCode) throws IOException {
+    streams.remove(stream.getId());
+    creditConnection(stream.reset(errorCode));
+    signalWindowUpdated();
+    if (!closed) {
+      writeRstStream(stream.getId(), errorCode);
+    }
+  }
+
+  private void removeIfComplete(Http2Stream stream) {
+    if (stream.isLocalClosed() && stream.isRemoteClosed()) {
+      streams.remove(stream.getId());
+    }
+  }
+
+  private void signalWindowUpdated() {
+    flowLock.lock();
+    try {
+      windowUpdated.signalAll();
+    } finally {
+      flowLock.unlock();
+    }
+  }
+
+  private void goAway(Http2ErrorCode errorCode, String debugMessage) {
+    try {
+      writeGoAway(errorCode, debugMessage);
+    } catch (IOException ex) {
+      LOGGER.debug("Failed to send GOAWAY to {}", remoteAddress, ex);
+    }
+  }
+
+  private void writeGoAway(Http2ErrorCode errorCode, String debugMessage) throws IOException {
+    byte[] debugData = debugMessage != null ? debugMessage.getBytes(StandardCharsets.UTF_8) : new byte[0];
+    byte[] payload = new byte[8 + debugData.length];
+    putInt(payload, 0, lastStreamId);
+    putInt(payload, 4, errorCode.getCode());
+    System.arraycopy(debugData, 0, payload, 8, debugData.length);
+    writeFrame(TYPE_GOAWAY, 0, 0, payload, 0, payload.length);
+  }
+
+  private void writeRstStream(int streamId, Http2ErrorCode errorCode) throws IOException {
+    byte[] payload = new byte[4];
+    putInt(payload, 0, errorCode.getCode());
+    writeFrame(TYPE_RST_STREAM, 0, streamId, payload, 0, payload.length);
+  }
+
+  private void writeFrame(int type, int flags, int streamId, byte[] payload, int offset, int length) throws IOException {
+    writeLock.lock();
+    try {
+      ensureOpen();
+      writeFrameHeader(length, type, flags, streamId);
+      out.write(payload, offset, length);
+      out.flush();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private void writeWindowUpdateFrame(int streamId, int increment) throws IOException {
+    byte[] payload = new byte[4];
+    putInt(payload, 0, increment);
+    writeFrameHeader(payload.length, TYPE_WINDOW_UPDATE, 0, streamId);
+    out.write(payload);
+  }
+
+  private void writeFrameHeader(int length, int type, int flags, int streamId) throws IOException {
+    byte[] header = new byte[FRAME_HEADER_LENGTH];
+    header[0] = (byte) (length >>> 16);
+    header[1] = (byte) (length >>> 8);
+    header[2] = (byte) length;
+    header[3] = (byte) type;
+    header[4] = (byte) flags;
+    putInt(header, 5, streamId);
+    out.write(header);
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed) {
+      throw new IOException("HTTP/2 connection is closed");
+    }
+  }
+
+  private int readPadding(int flags, byte[] payload) throws Http2Exception {
+    if ((flags & FLAG_PADDED) == 0) {
+      return 0;
+    }
+    if (payload.length == 0) {
+      throw Http2Exception.connectionError(Http2ErrorCode.FRAME_SIZE_ERROR, "Padded frame without pad length");
+    }
+    int padding = payload[0] & 0xff;
+    if (padding >= payload.length) {
+      throw Http2Exception.connectionError(Http2ErrorCode.PROTOCOL_ERROR, "Padding exceeds payload");
+    }
+    return padding;
+  }
+
+  private static void putSetting(byte[] target, int offset, int identifier, int value) {
+    target[offset] = (byte) (identifier >>> 8);
+    target[offset + 1] = (byte) identifier;
+    putInt(target, offset + 2, value);
+  }
+
+  private static void putInt(byte[] target, int offset, int value) {
+    target[offset] = (byte) (value >>> 24);
+    target[offset + 1] = (byte) (value >>> 16);
+    target[offset + 2] = (byte) (value >>> 8);
+    target[offset + 3] = (byte) value;
+  }
+
+  private static int readInt(byte[] source, int offset) {
+    return ((source[offset] & 0xff) << 24) | ((source[offset + 1] & 0xff) << 16) | ((source[offset + 2] & 0xff) << 8) | (source[offset + 3] & 0xff);
+  }
+
+}
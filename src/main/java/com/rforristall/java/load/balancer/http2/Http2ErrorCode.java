@@ -0,0 +1,49 @@
+package com.rforristall.java.load.balancer.http2;
+
+/**
+ * Error codes carried by RST_STREAM and GOAWAY frames (RFC 9113 Section 7)
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public enum Http2ErrorCode {
+  
+  NO_ERROR(0x0),
+  PROTOCOL_ERROR(0x1),
+  INTERNAL_ERROR(0x2),
+  FLOW_CONTROL_ERROR(0x3),
+  SETTINGS_TIMEOUT(0x4),
+  STREAM_CLOSED(0x5),
+  FRAME_SIZE_ERROR(0x6),
+  REFUSED_STREAM(0x7),
+  CANCEL(0x8),
+  COMPRESSION_ERROR(0x9),
+  CONNECT_ERROR(0xa),
+  ENHANCE_YOUR_CALM(0xb),
+  INADEQUATE_SECURITY(0xc),
+  HTTP_1_1_REQUIRED(0xd);
+  
+  private final int code;
+  
+  private Http2ErrorCode(int code) {
+    this.code = code;
+  }
+  
+  public int getCode() {
+    return code;
+  }
+  
+  /**
+   * Find the error code matching the value received on the wire
+   * @param code value read from a frame
+   * @return matching {@link Http2ErrorCode}, unknown values are treated as {@link #INTERNAL_ERROR}
+   */
+  public static Http2ErrorCode fromCode(int code) {
+    for (Http2ErrorCode errorCode : values()) {
+      if (errorCode.code == code) {
+        return errorCode;
+      }
+    }
+    return INTERNAL_ERROR;
+  }
+
+}
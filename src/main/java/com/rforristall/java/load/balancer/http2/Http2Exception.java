@@ -0,0 +1,48 @@
+package com.rforristall.java.load.balancer.http2;
+
+import java.io.IOException;
+
+/**
+ * Protocol violation detected while serving an HTTP/2 connection, either scoped to a single stream
+ * (answered with RST_STREAM) or to the whole connection (answered with GOAWAY)
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class Http2Exception extends IOException {
+
+  private static final long serialVersionUID = 1L;
+  
+  private final Http2ErrorCode errorCode;
+  
+  /**
+   * Id of the stream the error applies to, 0 when the error applies to the whole connection
+   */
+  private final int streamId;
+  
+  private Http2Exception(Http2ErrorCode errorCode, int streamId, String message) {
+    super(message);
+    this.errorCode = errorCode;
+    this.streamId = streamId;
+  }
+  
+  public static Http2Exception connectionError(Http2ErrorCode errorCode, String message) {
+    return new Http2Exception(errorCode, 0, message);
+  }
+  
+  public static Http2Exception streamError(Http2ErrorCode errorCode, int streamId, String message) {
+    return new Http2Exception(errorCode, streamId, message);
+  }
+  
+  public Http2ErrorCode getErrorCode() {
+    return errorCode;
+  }
+  
+  public int getStreamId() {
+    return streamId;
+  }
+  
+  public boolean isConnectionError() {
+    return streamId == 0;
+  }
+
+}
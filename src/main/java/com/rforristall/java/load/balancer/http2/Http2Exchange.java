@@ -0,0 +1,179 @@
+package com.rforristall.java.load.balancer.http2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+/**
+ * {@link HttpExchange} backed by an HTTP/2 stream so that the same {@link com.sun.net.httpserver.HttpHandler}
+ * used by the HTTP/1.1 listener can serve each multiplexed stream unchanged
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+final class Http2Exchange extends HttpExchange {
+
+  private static final String PROTOCOL = "HTTP/2.0";
+
+  /**
+   * Connection specific headers that are not allowed in HTTP/2 responses (RFC 9113 Section 8.2.2)
+   */
+  private static final Set<String> CONNECTION_HEADERS = Set.of("connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade");
+
+  private final Http2Stream stream;
+  private final String method;
+  private final URI requestUri;
+  private final Headers requestHeaders;
+  private final Headers responseHeaders = new Headers();
+  private final InetSocketAddress remoteAddress;
+  private final InetSocketAddress localAddress;
+  private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+  private InputStream requestBody;
+  private OutputStream responseBody;
+  private volatile int responseCode = -1;
+
+  Http2Exchange(Http2Stream stream, String method, URI requestUri, Headers requestHeaders, InetSocketAddress remoteAddress, InetSocketAddress localAddress) {
+    this.stream = stream;
+    this.method = method;
+    this.requestUri = requestUri;
+    this.requestHeaders = requestHeaders;
+    this.remoteAddress = remoteAddress;
+    this.localAddress = localAddress;
+    this.requestBody = stream.getRequestBody();
+    this.responseBody = stream.getResponseBody();
+  }
+
+  @Override
+  public Headers getRequestHeaders() {
+    return requestHeaders;
+  }
+
+  @Override
+  public Headers getResponseHeaders() {
+    return responseHeaders;
+  }
+
+  @Override
+  public URI getRequestURI() {
+    return requestUri;
+  }
+
+  @Override
+  public String getRequestMethod() {
+    return method;
+  }
+
+  /**
+   * HTTP/2 streams are not bound to a context of the HTTP/1.1 server
+   * @return always null
+   */
+  @Override
+  public HttpContext getHttpContext() {
+    return null;
+  }
+
+  @Override
+  public void close() {
+    try {
+      requestBody.close();
+      stream.close();
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  @Override
+  public InputStream getRequestBody() {
+    return requestBody;
+  }
+
+  @Override
+  public OutputStream getResponseBody() {
+    return responseBody;
+  }
+
+  @Override
+  public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+    List<Map.Entry<String, String>> headers = new ArrayList<>();
+    headers.add(Map.entry(":status", Integer.toString(rCode)));
+    boolean hasContentLength = false;
+    for (Map.Entry<String, List<String>> entry : responseHeaders.entrySet()) {
+      String name = entry.getKey().toLowerCase(Locale.ROOT);
+      if (CONNECTION_HEADERS.contains(name)) {
+        continue;
+      }
+      hasContentLength |= name.equals("content-length");
+      for (String value : entry.getValue()) {
+        headers.add(Map.entry(name, value));
+      }
+    }
+    if (responseLength > 0 && !hasContentLength) {
+      headers.add(Map.entry("content-length", Long.toString(responseLength)));
+    }
+    responseCode = rCode;
+    stream.sendHeaders(headers, responseLength == -1);
+  }
+
+  @Override
+  public InetSocketAddress getRemoteAddress() {
+    return remoteAddress;
+  }
+
+  @Override
+  public int getResponseCode() {
+    return responseCode;
+  }
+
+  @Override
+  public InetSocketAddress getLocalAddress() {
+    return localAddress;
+  }
+
+  @Override
+  public String getProtocol() {
+    return PROTOCOL;
+  }
+
+  @Override
+  public Object getAttribute(String name) {
+    return attributes.get(name);
+  }
+
+  @Override
+  public void setAttribute(String name, Object value) {
+    if (value == null) {
+      attributes.remove(name);
+    } else {
+      attributes.put(name, value);
+    }
+  }
+
+  @Override
+  public void setStreams(InputStream i, OutputStream o) {
+    if (i != null) {
+      requestBody = i;
+    }
+    if (o != null) {
+      responseBody = o;
+    }
+  }
+
+  @Override
+  public HttpPrincipal getPrincipal() {
+    return null;
+  }
+
+}
@@ -0,0 +1,165 @@
+package com.rforristall.java.load.balancer.http2;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Listener accepting cleartext HTTP/2 connections with prior knowledge (h2c). Every stream opened on an accepted
+ * connection is dispatched to the same {@link HttpHandler} the HTTP/1.1 server uses, so a single client
+ * connection can carry many concurrent requests without head of line blocking between them.
+ * <p>
+ * Several listeners can be bound to the same port with SO_REUSEPORT, the kernel then spreads new connections
+ * across them so that each listener's acceptor thread only handles its share of the connection rate.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class Http2Listener {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(Http2Listener.class);
+  
+  private static final AtomicInteger LISTENER_COUNT = new AtomicInteger(0);
+
+  private final ServerSocket serverSocket;
+  private final HttpHandler handler;
+  private final Executor executor;
+  private final int maxConcurrentStreams;
+  private final Set<Http2Connection> connections = ConcurrentHashMap.newKeySet();
+  private final AtomicLong acceptedConnections = new AtomicLong(0);
+  private final String name = "Http2Acceptor-" + LISTENER_COUNT.getAndIncrement();
+  private Thread acceptor;
+  private volatile boolean running = false;
+
+  /**
+   * @param address address to bind the listener to
+   * @param handler {@link HttpHandler} serving every stream
+   * @param executor {@link Executor} the streams are served on, a virtual thread per task executor is expected
+   * @param maxConcurrentStreams number of streams a single client connection may have open at the same time
+   * @throws IOException if the address cannot be bound
+   */
+  public Http2Listener(InetSocketAddress address, HttpHandler handler, Executor executor, int maxConcurrentStreams) throws IOException {
+    this(address, handler, executor, maxConcurrentStreams, false);
+  }
+
+  /**
+   * @param address address to bind the listener to
+   * @param handler {@link HttpHandler} serving every stream
+   * @param executor {@link Executor} the streams are served on, a virtual thread per task executor is expected
+   * @param maxConcurrentStreams number of streams a single client connection may have open at the same time
+   * @param reusePort true to set SO_REUSEPORT so other listeners can share the port
+   * @throws IOException if the address cannot be bound or SO_REUSEPORT is not supported by the platform
+   */
+  public Http2Listener(InetSocketAddress address, HttpHandler handler, Executor executor, int maxConcurrentStreams, boolean reusePort) throws IOException {
+    this.serverSocket = new ServerSocket();
+    try {
+      this.serverSocket.setReuseAddress(true);
+      if (reusePort) {
+        if (!serverSocket.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+          throw new IOException("SO_REUSEPORT is not supported on this platform");
+        }
+        serverSocket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+      }
+      this.serverSocket.bind(address);
+    } catch (IOException ex) {
+      serverSocket.close();
+      throw ex;
+    }
+    this.handler = handler;
+    this.executor = executor;
+    this.maxConcurrentStreams = maxConcurrentStreams;
+  }
+
+  public void start() {
+    running = true;
+    acceptor = new Thread(this::acceptConnections, name);
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /**
+   * Stop accepting connections and send GOAWAY to the open ones, waiting up to the delay for in flight streams
+   * @param delaySeconds maximum number of seconds to wait for streams to complete
+   */
+  public void stop(int delaySeconds) {
+    running = false;
+    try {
+      serverSocket.close();
+    } catch (IOException ex) {
+      LOGGER.warn("Failed to close HTTP/2 listener", ex);
+    }
+    for (Http2Connection connection : connections) {
+      connection.shutdown();
+    }
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(delaySeconds);
+    while (System.nanoTime() < deadline && connections.stream().anyMatch(c -> c.getActiveStreams() > 0)) {
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    for (Http2Connection connection : connections) {
+      connection.close();
+    }
+  }
+
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Get the number of connections this listener has accepted since starting
+   * @return number of accepted connections
+   */
+  public long getAcceptedConnections() {
+    return acceptedConnections.get();
+  }
+
+  /**
+   * Get the number of connections accepted by this listener that are still open
+   * @return number of open connections
+   */
+  public int getOpenConnections() {
+    return connections.size();
+  }
+
+  void connectionClosed(Http2Connection connection) {
+    connections.remove(connection);
+  }
+
+  private void acceptConnections() {
+    while (running) {
+      try {
+        Socket socket = serverSocket.accept();
+        acceptedConnections.incrementAndGet();
+        socket.setTcpNoDelay(true);
+        Http2Connection connection = new Http2Connection(this, socket, handler, executor, maxConcurrentStreams);
+        connections.add(connection);
+        Thread.ofVirtual().name("Http2Connection-" + socket.getRemoteSocketAddress()).start(connection);
+      } catch (IOException ex) {
+        if (running) {
+          LOGGER.warn("Failed to accept HTTP/2 connection", ex);
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,339 @@
+package com.rforristall.java.load.balancer.http2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A single request/response exchange multiplexed over an {@link Http2Connection}. The request body is
+ * buffered as DATA frames arrive and handed back to flow control as the handler reads it, the response
+ * body is written as DATA frames bounded by the peer's flow control windows.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+final class Http2Stream {
+
+  private final Http2Connection connection;
+  private final int id;
+
+  /**
+   * Guards the request body buffer and the receive side of flow control, a ReentrantLock is used so that
+   * virtual threads waiting on request data do not pin their carrier thread
+   */
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition dataAvailable = lock.newCondition();
+  private final ArrayDeque<ByteBuffer> requestChunks = new ArrayDeque<>();
+  private final int initialReceiveWindow;
+  private int receiveWindow;
+  private int unacknowledgedBytes = 0;
+  private boolean remoteClosed = false;
+  private Http2ErrorCode resetCode;
+
+  /**
+   * Window the peer has granted for response DATA, guarded by the connection flow control lock
+   */
+  private int sendWindow;
+
+  private volatile boolean headersSent = false;
+  private volatile boolean localClosed = false;
+
+  private final InputStream requestBody = new RequestBodyStream();
+  private final ResponseBodyStream responseBody;
+
+  Http2Stream(Http2Connection connection, int id, int initialReceiveWindow, int initialSendWindow, int responseBufferSize) {
+    this.connection = connection;
+    this.id = id;
+    this.initialReceiveWindow = initialReceiveWindow;
+    this.receiveWindow = initialReceiveWindow;
+    this.sendWindow = initialSendWindow;
+    this.responseBody = new ResponseBodyStream(responseBufferSize);
+  }
+
+  int getId() {
+    return id;
+  }
+
+  InputStream getRequestBody() {
+    return requestBody;
+  }
+
+  OutputStream getResponseBody() {
+    return responseBody;
+  }
+
+  int getSendWindow() {
+    return sendWindow;
+  }
+
+  void setSendWindow(int sendWindow) {
+    this.sendWindow = sendWindow;
+  }
+
+  boolean isHeadersSent() {
+    return headersSent;
+  }
+
+  boolean isLocalClosed() {
+    return localClosed;
+  }
+
+  boolean isRemoteClosed() {
+    lock.lock();
+    try {
+      return remoteClosed;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  boolean isReset() {
+    lock.lock();
+    try {
+      return resetCode != null;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Buffer a DATA frame payload received from the peer, called from the connection reader
+   * @param frameLength full frame length, including padding, that counts against flow control
+   * @throws Http2Exception if the peer exceeded the stream window or sent data after ending the stream
+   */
+  void receiveData(byte[] payload, int offset, int length, int frameLength) throws Http2Exception {
+    lock.lock();
+    try {
+      if (remoteClosed) {
+        throw Http2Exception.streamError(Http2ErrorCode.STREAM_CLOSED, id, "DATA received after END_STREAM");
+      }
+      receiveWindow -= frameLength;
+      if (receiveWindow < 0) {
+        throw Http2Exception.streamError(Http2ErrorCode.FLOW_CONTROL_ERROR, id, "Stream receive window exceeded");
+      }
+      if (length > 0) {
+        requestChunks.add(ByteBuffer.wrap(payload, offset, length));
+        dataAvailable.signalAll();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Mark the request as complete after END_STREAM was received
+   */
+  void receiveEnd() {
+    lock.lock();
+    try {
+      remoteClosed = true;
+      dataAvailable.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Abort the stream after RST_STREAM was sent or received, or the connection went away
+   * @return number of buffered request bytes that will never be read and should be returned to the connection window
+   */
+  int reset(Http2ErrorCode errorCode) {
+    lock.lock();
+    try {
+      if (resetCode == null) {
+        resetCode = errorCode;
+      }
+      remoteClosed = true;
+      localClosed = true;
+      int unread = 0;
+      for (ByteBuffer chunk : requestChunks) {
+        unread += chunk.remaining();
+      }
+      requestChunks.clear();
+      dataAvailable.signalAll();
+      return unread;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Record that the handler consumed request bytes
+   * @return stream window increment to send to the peer, 0 if the update should be batched with later reads
+   */
+  int creditConsumed(int consumed) {
+    lock.lock();
+    try {
+      unacknowledgedBytes += consumed;
+      if (remoteClosed || unacknowledgedBytes < initialReceiveWindow / 2) {
+        return 0;
+      }
+      int increment = unacknowledgedBytes;
+      unacknowledgedBytes = 0;
+      receiveWindow += increment;
+      return increment;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Send the response status and headers
+   * @param headers lower case response headers, starting with the :status pseudo header
+   * @param endStream true if the response has no body
+   */
+  void sendHeaders(List<Map.Entry<String, String>> headers, boolean endStream) throws IOException {
+    if (headersSent) {
+      throw new IOException("Response headers already sent");
+    }
+    if (isReset()) {
+      throw new IOException("Stream " + id + " was reset");
+    }
+    headersSent = true;
+    connection.writeHeaders(this, headers, endStream);
+    if (endStream) {
+      localClosed = true;
+      connection.streamLocalClosed(this);
+    }
+  }
+
+  /**
+   * Finish the exchange once the handler is done, a response that never started is answered with RST_STREAM
+   */
+  void close() throws IOException {
+    if (!headersSent) {
+      connection.resetStream(this, Http2ErrorCode.INTERNAL_ERROR);
+      return;
+    }
+    responseBody.close();
+  }
+
+  private class RequestBodyStream extends InputStream {
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      int read;
+      lock.lock();
+      try {
+        while (requestChunks.isEmpty() && !remoteClosed) {
+          dataAvailable.await();
+        }
+        if (resetCode != null) {
+          throw new IOException("Stream " + id + " was reset with " + resetCode);
+        }
+        ByteBuffer chunk = requestChunks.peek();
+        if (chunk == null) {
+          return -1;
+        }
+        read = Math.min(len, chunk.remaining());
+        chunk.get(b, off, read);
+        if (!chunk.hasRemaining()) {
+          requestChunks.poll();
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for request data", ex);
+      } finally {
+        lock.unlock();
+      }
+      connection.consumed(Http2Stream.this, read);
+      return read;
+    }
+
+    @Override
+    public int available() {
+      lock.lock();
+      try {
+        int available = 0;
+        for (ByteBuffer chunk : requestChunks) {
+          available += chunk.remaining();
+        }
+        return available;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+  }
+
+  private class ResponseBodyStream extends OutputStream {
+
+    private final byte[] buffer;
+    private int count = 0;
+    private boolean closed = false;
+
+    private ResponseBodyStream(int bufferSize) {
+      this.buffer = new byte[bufferSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      ensureWritable();
+      if (len >= buffer.length) {
+        flushBuffer(false);
+        connection.writeData(Http2Stream.this, b, off, len, false);
+        return;
+      }
+      if (len > buffer.length - count) {
+        flushBuffer(false);
+      }
+      System.arraycopy(b, off, buffer, count, len);
+      count += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      ensureWritable();
+      flushBuffer(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed || localClosed) {
+        closed = true;
+        return;
+      }
+      closed = true;
+      flushBuffer(true);
+      localClosed = true;
+      connection.streamLocalClosed(Http2Stream.this);
+    }
+
+    private void ensureWritable() throws IOException {
+      if (!headersSent) {
+        throw new IOException("Response headers have not been sent");
+      }
+      if (closed || localClosed) {
+        throw new IOException("Response body of stream " + id + " is closed");
+      }
+    }
+
+    private void flushBuffer(boolean endStream) throws IOException {
+      if (count > 0 || endStream) {
+        connection.writeData(Http2Stream.this, buffer, 0, count, endStream);
+        count = 0;
+      }
+    }
+
+  }
+
+}
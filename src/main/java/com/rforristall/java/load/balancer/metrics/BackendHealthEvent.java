@@ -0,0 +1,31 @@
+package com.rforristall.java.load.balancer.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event committed when a backend changes between healthy and unhealthy
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@Name("com.rforristall.loadbalancer.BackendHealth")
+@Label("Backend Health Transition")
+@Category({"Load Balancer", "Health"})
+@Description("Backend health status changed")
+@StackTrace(false)
+public class BackendHealthEvent extends Event {
+  
+  @Label("Backend")
+  public String backend;
+  
+  @Label("Healthy")
+  public boolean healthy;
+  
+  @Label("Consecutive Failures")
+  public int consecutiveFailures;
+
+}
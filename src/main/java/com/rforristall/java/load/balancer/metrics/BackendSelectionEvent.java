@@ -0,0 +1,33 @@
+package com.rforristall.java.load.balancer.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event committed every time the balancing strategy is asked for a backend
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@Name("com.rforristall.loadbalancer.BackendSelection")
+@Label("Backend Selection")
+@Category({"Load Balancer", "Selection"})
+@Description("Backend chosen by the balancing strategy")
+@StackTrace(false)
+public class BackendSelectionEvent extends Event {
+  
+  @Label("Backend")
+  @Description("Selected backend, null if no healthy backend was available")
+  public String backend;
+  
+  @Label("Excluded Backends")
+  public int excluded;
+  
+  @Label("Active Connections")
+  @Description("Active connections of the selected backend at the time it was chosen")
+  public int activeConnections;
+
+}
@@ -1,5 +1,6 @@
 package com.rforristall.java.load.balancer.metrics;
 
+import java.util.Collection;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -27,13 +28,21 @@ public class MetricsCollector {
       noBackendErrors.incrementAndGet();
   }
   
-  public void recordRequestDuration(long durationMs) {
-      requestDurations.offer(durationMs);
+  /**
+   * Record how long a request took to serve
+   * @param durationNanos duration measured with {@link System#nanoTime()}
+   */
+  public void recordRequestDuration(long durationNanos) {
+      requestDurations.offer(durationNanos);
       while (requestDurations.size() > MAX_DURATION_SAMPLES) {
           requestDurations.poll();
       }
   }
   
+  public long getNoBackendErrors() {
+      return noBackendErrors.get();
+  }
+  
   public long getSuccessfulRequests() {
       return successfulRequests.get();
   }
@@ -51,18 +60,39 @@ public class MetricsCollector {
       return total > 0 ? (double) successfulRequests.get() / total * 100 : 0;
   }
   
+  /**
+   * Get the average duration of the most recent requests
+   * @return average duration in milliseconds
+   */
   public double getAverageDuration() {
       if (requestDurations.isEmpty()) return 0;
       return requestDurations.stream()
           .mapToLong(Long::longValue)
           .average()
-          .orElse(0);
+          .orElse(0) / 1_000_000.0;
+  }
+  
+  /**
+   * Combine the counters and duration samples of several collectors, used to report listener shards that
+   * each record into their own collector to avoid contending on shared counters
+   * @param collectors {@link Collection}<{@link MetricsCollector}> to combine
+   * @return new {@link MetricsCollector} holding the totals of all collectors
+   */
+  public static MetricsCollector merge(Collection<MetricsCollector> collectors) {
+      MetricsCollector merged = new MetricsCollector();
+      for (MetricsCollector collector : collectors) {
+          merged.successfulRequests.addAndGet(collector.successfulRequests.get());
+          merged.failedRequests.addAndGet(collector.failedRequests.get());
+          merged.noBackendErrors.addAndGet(collector.noBackendErrors.get());
+          merged.requestDurations.addAll(collector.requestDurations);
+      }
+      return merged;
   }
   
   @Override
   public String toString() {
       return String.format(
-          "Total: %d, Success: %d (%.1f%%), Failed: %d, No Backend: %d, Avg Duration: %.1fms",
+          "Total: %d, Success: %d (%.1f%%), Failed: %d, No Backend: %d, Avg Duration: %.3fms",
           getTotalRequests(), successfulRequests.get(), getSuccessRate(),
           failedRequests.get(), noBackendErrors.get(), getAverageDuration()
       );
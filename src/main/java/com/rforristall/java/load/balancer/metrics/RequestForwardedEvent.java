@@ -0,0 +1,57 @@
+package com.rforristall.java.load.balancer.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event committed for every attempt to forward a request to a backend, the event duration covers the whole
+ * attempt and the fields break it down into phases
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@Name("com.rforristall.loadbalancer.RequestForwarded")
+@Label("Request Forwarded")
+@Category({"Load Balancer", "Requests"})
+@Description("Attempt to forward a client request to a backend")
+@StackTrace(false)
+public class RequestForwardedEvent extends Event {
+  
+  @Label("Backend")
+  public String backend;
+  
+  @Label("Method")
+  public String method;
+  
+  @Label("Path")
+  public String path;
+  
+  @Label("Status")
+  @Description("Status code returned to the client, -1 if the attempt failed")
+  public int status;
+  
+  @Label("Attempt")
+  public int attempt;
+  
+  @Label("Body Read")
+  @Timespan(Timespan.NANOSECONDS)
+  public long bodyRead;
+  
+  @Label("Upstream Headers")
+  @Description("Connect, send and time to first byte from the backend")
+  @Timespan(Timespan.NANOSECONDS)
+  public long upstreamHeaders;
+  
+  @Label("Upstream Body")
+  @Timespan(Timespan.NANOSECONDS)
+  public long upstreamBody;
+  
+  @Label("Client Write")
+  @Timespan(Timespan.NANOSECONDS)
+  public long clientWrite;
+
+}
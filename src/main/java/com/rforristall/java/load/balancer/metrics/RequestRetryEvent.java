@@ -0,0 +1,34 @@
+package com.rforristall.java.load.balancer.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event committed when an attempt to forward a request fails and another backend will be tried
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@Name("com.rforristall.loadbalancer.RequestRetry")
+@Label("Request Retry")
+@Category({"Load Balancer", "Requests"})
+@Description("Failed forwarding attempt")
+@StackTrace(false)
+public class RequestRetryEvent extends Event {
+  
+  @Label("Failed Backend")
+  public String backend;
+  
+  @Label("Attempt")
+  public int attempt;
+  
+  @Label("Consecutive Failures")
+  public int consecutiveFailures;
+  
+  @Label("Error")
+  public String error;
+
+}
@@ -0,0 +1,145 @@
+package com.rforristall.java.load.balancer.metrics;
+
+/**
+ * Monotonic {@link System#nanoTime()} breakdown of where the time of a single forwarded request went. Phases
+ * of a retried request describe the last attempt, they are reset as each attempt starts so a failed attempt never
+ * reports the phases of the one before it, except selection which accumulates over every attempt. The body sizes
+ * seen in those phases are kept alongside so the whole record can be handed to the access log.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class RequestTiming {
+  
+  /**
+   * Timestamp the request was received at
+   */
+  private final long startNanos = System.nanoTime();
+  
+  /**
+   * Time spent in the balancing strategy choosing backends
+   */
+  private long selectionNanos = 0;
+  
+  /**
+   * Time spent waiting in a priority class queue for backend capacity
+   */
+  private long queueWaitNanos = 0;
+  
+  /**
+   * Time spent reading the request body from the client
+   */
+  private long bodyReadNanos = 0;
+  
+  /**
+   * Time from sending the request upstream until the response headers arrived, this includes connecting to
+   * the backend since {@link java.net.http.HttpClient} does not expose connection setup separately
+   */
+  private long upstreamHeadersNanos = 0;
+  
+  /**
+   * Time from the response headers arriving until the full response body was received from the backend
+   */
+  private long upstreamBodyNanos = 0;
+  
+  /**
+   * Time spent writing the response to the client
+   */
+  private long clientWriteNanos = 0;
+  
+  /**
+   * Size of the request body read from the client
+   */
+  private long requestBytes = 0;
+  
+  /**
+   * Size of the response body written to the client
+   */
+  private long responseBytes = 0;
+  
+  public long getStartNanos() {
+    return startNanos;
+  }
+  
+  /**
+   * Get the time elapsed since the request was received
+   * @return nanoseconds since the request started
+   */
+  public long getElapsedNanos() {
+    return System.nanoTime() - startNanos;
+  }
+  
+  public long getSelectionNanos() {
+    return selectionNanos;
+  }
+  
+  public void addSelectionNanos(long nanos) {
+    this.selectionNanos += nanos;
+  }
+  
+  public long getQueueWaitNanos() {
+    return queueWaitNanos;
+  }
+  
+  public void setQueueWaitNanos(long nanos) {
+    this.queueWaitNanos = nanos;
+  }
+  
+  public long getBodyReadNanos() {
+    return bodyReadNanos;
+  }
+  
+  public void setBodyReadNanos(long nanos) {
+    this.bodyReadNanos = nanos;
+  }
+  
+  public long getUpstreamHeadersNanos() {
+    return upstreamHeadersNanos;
+  }
+  
+  public void setUpstreamHeadersNanos(long nanos) {
+    this.upstreamHeadersNanos = nanos;
+  }
+  
+  public long getUpstreamBodyNanos() {
+    return upstreamBodyNanos;
+  }
+  
+  public void setUpstreamBodyNanos(long nanos) {
+    this.upstreamBodyNanos = nanos;
+  }
+  
+  public long getClientWriteNanos() {
+    return clientWriteNanos;
+  }
+  
+  public void setClientWriteNanos(long nanos) {
+    this.clientWriteNanos = nanos;
+  }
+  
+  public long getRequestBytes() {
+    return requestBytes;
+  }
+  
+  public void setRequestBytes(long bytes) {
+    this.requestBytes = bytes;
+  }
+  
+  public long getResponseBytes() {
+    return responseBytes;
+  }
+  
+  public void setResponseBytes(long bytes) {
+    this.responseBytes = bytes;
+  }
+  
+  /**
+   * Clear the phases measured per forwarding attempt, called before each attempt starts
+   */
+  public void resetAttempt() {
+    this.upstreamHeadersNanos = 0;
+    this.upstreamBodyNanos = 0;
+    this.clientWriteNanos = 0;
+    this.responseBytes = 0;
+  }
+
+}
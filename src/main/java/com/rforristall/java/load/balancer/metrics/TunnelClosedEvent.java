@@ -0,0 +1,40 @@
+package com.rforristall.java.load.balancer.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event spanning the lifetime of an upgraded connection relayed between a client and a backend
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@Name("com.rforristall.loadbalancer.TunnelClosed")
+@Label("Tunnel Closed")
+@Category({"Load Balancer", "Tunnels"})
+@Description("Upgraded connection relayed to a backend")
+@StackTrace(false)
+public class TunnelClosedEvent extends Event {
+  
+  @Label("Backend")
+  public String backend;
+  
+  @Label("Upgrade Protocol")
+  public String protocol;
+  
+  @Label("Client To Backend")
+  @DataAmount
+  public long clientToBackendBytes;
+  
+  @Label("Backend To Client")
+  @DataAmount
+  public long backendToClientBytes;
+  
+  @Label("Closed By Idle Timeout")
+  public boolean idleTimeout;
+
+}
@@ -0,0 +1,91 @@
+package com.rforristall.java.load.balancer.routing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.rforristall.java.load.balancer.backend.Backend;
+import com.rforristall.java.load.balancer.strategy.BalancingStrategies;
+import com.rforristall.java.load.balancer.strategy.BalancingStrategy;
+import com.rforristall.java.load.balancer.strategy.BalancingStrategyBuilder;
+
+/**
+ * Named group of backends that routes send requests to, each pool balances, health checks and retries on its own
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class BackendPool {
+  
+  /**
+   * Name of the pool built from the top level backends, requests no route matches are sent to it
+   */
+  public static final String DEFAULT_POOL = "default";
+  
+  private final String name;
+  private final List<Backend> backends;
+  private final BalancingStrategies strategyType;
+  private final BalancingStrategy strategy;
+  private final int healthCheckInterval;
+  private final int maxRetries;
+  
+  /**
+   * @param name name routes refer to the pool by
+   * @param backends {@link List}<{@link Backend}> of the pool
+   * @param strategy {@link BalancingStrategies} used to pick a backend of the pool
+   * @param healthCheckInterval milliseconds between health checks of the pool's backends
+   * @param maxRetries number of other backends of the pool tried when forwarding fails
+   */
+  public BackendPool(String name, List<Backend> backends, BalancingStrategies strategy, int healthCheckInterval, int maxRetries) {
+    this.name = name;
+    this.backends = Collections.unmodifiableList(new ArrayList<>(backends));
+    this.strategyType = strategy;
+    this.strategy = BalancingStrategyBuilder.createStrategy(strategy, this.backends);
+    this.healthCheckInterval = healthCheckInterval;
+    this.maxRetries = maxRetries;
+  }
+  
+  private BackendPool(BackendPool pool, BalancingStrategy strategy) {
+    this.name = pool.name;
+    this.backends = pool.backends;
+    this.strategyType = pool.strategyType;
+    this.strategy = strategy;
+    this.healthCheckInterval = pool.healthCheckInterval;
+    this.maxRetries = pool.maxRetries;
+  }
+  
+  /**
+   * Copy the pool with its strategy wrapped to prefer the backends of the load balancer's zone
+   * @param localZone zone of the load balancer
+   * @param minHealthyFraction fraction of the local backends that must be healthy for all traffic to stay local
+   * @param loadThreshold average active connections per local backend above which traffic spills over, 0 to ignore the load
+   * @return zone aware {@link BackendPool}
+   */
+  public BackendPool withZone(String localZone, double minHealthyFraction, int loadThreshold) {
+    return new BackendPool(this, BalancingStrategyBuilder.createZoneAwareStrategy(strategyType, backends, localZone, minHealthyFraction, loadThreshold));
+  }
+  
+  public String getName() {
+    return name;
+  }
+  
+  public List<Backend> getBackends() {
+    return backends;
+  }
+  
+  public BalancingStrategies getStrategyType() {
+    return strategyType;
+  }
+  
+  public BalancingStrategy getStrategy() {
+    return strategy;
+  }
+  
+  public int getHealthCheckInterval() {
+    return healthCheckInterval;
+  }
+  
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+}
@@ -0,0 +1,39 @@
+package com.rforristall.java.load.balancer.routing;
+
+import java.util.function.Function;
+
+/**
+ * Conditions of a {@link RouteRule} that are checked once its host and path matched, resolved to the pool it targets
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+final class CompiledRoute {
+
+  private final String method;
+  private final String headerName;
+  private final String headerValue;
+  private final BackendPool pool;
+
+  CompiledRoute(RouteRule rule, BackendPool pool) {
+    this.method = rule.getMethod();
+    this.headerName = rule.getHeaderName();
+    this.headerValue = rule.getHeaderValue();
+    this.pool = pool;
+  }
+
+  BackendPool getPool() {
+    return pool;
+  }
+
+  boolean matches(String requestMethod, Function<String, String> headers) {
+    if (method != null && !method.equalsIgnoreCase(requestMethod)) {
+      return false;
+    }
+    if (headerName != null) {
+      String value = headers.apply(headerName);
+      return value != null && (headerValue == null || headerValue.equals(value));
+    }
+    return true;
+  }
+
+}
@@ -0,0 +1,148 @@
+package com.rforristall.java.load.balancer.routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Radix tree of the route paths of one host. Edges are labelled with the longest run of characters the routes
+ * below them share, so a lookup compares each character of the request path at most once and never allocates.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+final class PathTree {
+
+  private final Node root = new Node("");
+
+  /**
+   * Add a route to the tree, routes added earlier win when several match at the same path
+   * @param path path prefix or exact path of the route, empty for a route matching every path
+   * @param prefix true if the route matches paths below the path as well
+   */
+  void insert(String path, boolean prefix, CompiledRoute route) {
+    Node node = root;
+    int position = 0;
+    while (position < path.length()) {
+      Node child = node.child(path.charAt(position));
+      if (child == null) {
+        child = new Node(path.substring(position));
+        node.addChild(child);
+        node = child;
+        break;
+      }
+      int common = commonPrefixLength(child.label, path, position);
+      if (common < child.label.length()) {
+        Node split = new Node(child.label.substring(0, common));
+        node.replaceChild(child, split);
+        child.label = child.label.substring(common);
+        split.addChild(child);
+        child = split;
+      }
+      position += common;
+      node = child;
+    }
+    if (prefix) {
+      node.prefixRoutes.add(route);
+    } else {
+      node.exactRoutes.add(route);
+    }
+  }
+
+  /**
+   * Find the route for a request, an exact path match wins over prefixes and a longer prefix over a shorter one
+   * @param method request method
+   * @param path request path without the query
+   * @param headers looks up the first value of a request header by name
+   * @return matching {@link CompiledRoute}, null if none matches
+   */
+  CompiledRoute lookup(String method, String path, Function<String, String> headers) {
+    CompiledRoute best = null;
+    Node node = root;
+    int position = 0;
+    while (true) {
+      if (!node.prefixRoutes.isEmpty() && isSegmentBoundary(path, position)) {
+        CompiledRoute match = firstMatch(node.prefixRoutes, method, headers);
+        if (match != null) {
+          best = match;
+        }
+      }
+      if (position == path.length()) {
+        CompiledRoute match = firstMatch(node.exactRoutes, method, headers);
+        return match != null ? match : best;
+      }
+      Node child = node.child(path.charAt(position));
+      if (child == null || !path.regionMatches(position, child.label, 0, child.label.length())) {
+        return best;
+      }
+      position += child.label.length();
+      node = child;
+    }
+  }
+
+  /**
+   * A prefix only matches whole path segments, so /api matches /api/users but not /apis
+   */
+  private static boolean isSegmentBoundary(String path, int position) {
+    return position == 0 || position == path.length() || path.charAt(position - 1) == '/' || path.charAt(position) == '/';
+  }
+
+  private static CompiledRoute firstMatch(List<CompiledRoute> routes, String method, Function<String, String> headers) {
+    for (int i = 0; i < routes.size(); i++) {
+      CompiledRoute route = routes.get(i);
+      if (route.matches(method, headers)) {
+        return route;
+      }
+    }
+    return null;
+  }
+
+  private static int commonPrefixLength(String label, String path, int offset) {
+    int length = Math.min(label.length(), path.length() - offset);
+    int common = 0;
+    while (common < length && label.charAt(common) == path.charAt(offset + common)) {
+      common++;
+    }
+    return common;
+  }
+
+  private static final class Node {
+
+    private String label;
+    private Node[] children = new Node[0];
+    private final List<CompiledRoute> prefixRoutes = new ArrayList<>(1);
+    private final List<CompiledRoute> exactRoutes = new ArrayList<>(1);
+
+    private Node(String label) {
+      this.label = label;
+    }
+
+    /**
+     * Children start with distinct characters and are few, a linear scan beats hashing the character
+     */
+    private Node child(char first) {
+      for (Node child : children) {
+        if (child.label.charAt(0) == first) {
+          return child;
+        }
+      }
+      return null;
+    }
+
+    private void addChild(Node child) {
+      children = Arrays.copyOf(children, children.length + 1);
+      children[children.length - 1] = child;
+    }
+
+    private void replaceChild(Node child, Node replacement) {
+      for (int i = 0; i < children.length; i++) {
+        if (children[i] == child) {
+          children[i] = replacement;
+          return;
+        }
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,106 @@
+package com.rforristall.java.load.balancer.routing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Canonical form of request paths, the one form requests are routed, classified and forwarded on. Percent-encoded
+ * unreserved characters are decoded and the remaining escapes upper cased (RFC 3986 6.2.2), then dot segments are
+ * removed (RFC 3986 5.2.4), so /public/%2e%2e/admin is routed as /admin and the backend is sent /admin as well.
+ * Everything else stays encoded as the client sent it, an encoded slash does not split a segment.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public final class RequestPath {
+
+  private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+  private RequestPath() {
+
+  }
+
+  /**
+   * Canonicalize a raw request path, the common case of a path without escapes or dot segments does not allocate
+   * @param rawPath path as sent by the client, still percent-encoded and without the query
+   * @return canonical path, / if the path was null or empty
+   */
+  public static String canonicalize(String rawPath) {
+    if (rawPath == null || rawPath.isEmpty()) {
+      return "/";
+    }
+    String path = decodeUnreserved(rawPath);
+    return path.startsWith("/") && path.contains("/.") ? removeDotSegments(path) : path;
+  }
+
+  /**
+   * Canonicalize the path of a raw request target and keep its query as it is
+   * @param rawTarget request target as sent by the client, a path optionally followed by ? and a query
+   * @return request target with a canonical path
+   */
+  public static String canonicalizeTarget(String rawTarget) {
+    int query = rawTarget.indexOf('?');
+    if (query == -1) {
+      return canonicalize(rawTarget);
+    }
+    return canonicalize(rawTarget.substring(0, query)) + rawTarget.substring(query);
+  }
+
+  /**
+   * Decode escapes of ALPHA, DIGIT, -, ., _ and ~, which mean the same encoded or not, and upper case the hex digits of the others
+   */
+  private static String decodeUnreserved(String path) {
+    int percent = path.indexOf('%');
+    if (percent == -1) {
+      return path;
+    }
+    StringBuilder decoded = new StringBuilder(path.length());
+    decoded.append(path, 0, percent);
+    for (int i = percent; i < path.length(); i++) {
+      char c = path.charAt(i);
+      int high = c == '%' && i + 2 < path.length() ? Character.digit(path.charAt(i + 1), 16) : -1;
+      int low = high != -1 ? Character.digit(path.charAt(i + 2), 16) : -1;
+      if (low == -1) {
+        // Not an escape, a malformed one is passed on untouched
+        decoded.append(c);
+        continue;
+      }
+      char value = (char) (high << 4 | low);
+      if (isUnreserved(value)) {
+        decoded.append(value);
+      } else {
+        decoded.append('%').append(HEX_DIGITS[high]).append(HEX_DIGITS[low]);
+      }
+      i += 2;
+    }
+    return decoded.toString();
+  }
+
+  private static boolean isUnreserved(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '.' || c == '_' || c == '~';
+  }
+
+  /**
+   * Resolve . and .. segments of an absolute path, a .. above the root is dropped and a trailing . or .. leaves a trailing slash
+   */
+  private static String removeDotSegments(String path) {
+    String[] parts = path.split("/", -1);
+    List<String> segments = new ArrayList<>(parts.length);
+    for (int i = 1; i < parts.length; i++) {
+      String segment = parts[i];
+      boolean dot = segment.equals(".");
+      boolean dotDot = segment.equals("..");
+      if (!dot && !dotDot) {
+        segments.add(segment);
+        continue;
+      }
+      if (dotDot && !segments.isEmpty()) {
+        segments.remove(segments.size() - 1);
+      }
+      if (i == parts.length - 1) {
+        segments.add("");
+      }
+    }
+    return "/" + String.join("/", segments);
+  }
+
+}
@@ -0,0 +1,127 @@
+package com.rforristall.java.load.balancer.routing;
+
+import java.util.Locale;
+
+/**
+ * Rule sending the requests it matches to a {@link BackendPool}. Every condition that is set has to match, a rule
+ * with no path condition matches every path of its host.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class RouteRule {
+  
+  private final String host;
+  private final String pathPrefix;
+  private final String exactPath;
+  private final String method;
+  private final String headerName;
+  private final String headerValue;
+  private final String pool;
+  
+  private RouteRule(RouteRuleBuilder builder) {
+    this.host = builder.host != null ? builder.host.toLowerCase(Locale.ROOT) : null;
+    this.pathPrefix = builder.pathPrefix;
+    this.exactPath = builder.exactPath;
+    this.method = builder.method;
+    this.headerName = builder.headerName;
+    this.headerValue = builder.headerValue;
+    this.pool = builder.pool;
+  }
+  
+  /**
+   * Start a rule routing to a pool
+   * @param pool name of the {@link BackendPool} matching requests are sent to
+   * @return new {@link RouteRuleBuilder}
+   */
+  public static RouteRuleBuilder builder(String pool) {
+    return new RouteRuleBuilder(pool);
+  }
+  
+  /**
+   * @return host the rule applies to in lower case, a leading *. matches any subdomain, null for every host
+   */
+  public String getHost() {
+    return host;
+  }
+  
+  public String getPathPrefix() {
+    return pathPrefix;
+  }
+  
+  public String getExactPath() {
+    return exactPath;
+  }
+  
+  public String getMethod() {
+    return method;
+  }
+  
+  public String getHeaderName() {
+    return headerName;
+  }
+  
+  public String getHeaderValue() {
+    return headerValue;
+  }
+  
+  public String getPool() {
+    return pool;
+  }
+  
+  public static class RouteRuleBuilder {
+    private final String pool;
+    private String host = null;
+    private String pathPrefix = null;
+    private String exactPath = null;
+    private String method = null;
+    private String headerName = null;
+    private String headerValue = null;
+    
+    private RouteRuleBuilder(String pool) {
+        this.pool = pool;
+    }
+    
+    public RouteRuleBuilder host(String host) { 
+        this.host = host; 
+        return this; 
+    }
+    /**
+     * Match paths starting with the prefix at a segment boundary, /api matches /api and /api/users but not /apis
+     */
+    public RouteRuleBuilder pathPrefix(String prefix) { 
+        this.pathPrefix = prefix; 
+        return this; 
+    }
+    public RouteRuleBuilder exactPath(String path) { 
+        this.exactPath = path; 
+        return this; 
+    }
+    public RouteRuleBuilder method(String method) { 
+        this.method = method; 
+        return this; 
+    }
+    /**
+     * @param value value the header must have, null to match any value
+     */
+    public RouteRuleBuilder header(String name, String value) { 
+        this.headerName = name; 
+        this.headerValue = value; 
+        return this; 
+    }
+    
+    public RouteRule build() {
+        if (pool == null) {
+            throw new IllegalArgumentException("Route needs a backend pool");
+        }
+        if (pathPrefix != null && exactPath != null) {
+            throw new IllegalArgumentException("Route can match either a path prefix or an exact path");
+        }
+        String path = pathPrefix != null ? pathPrefix : exactPath;
+        if (path != null && !path.startsWith("/")) {
+            throw new IllegalArgumentException("Route path must start with /");
+        }
+        return new RouteRule(this);
+    }
+  }
+
+}
@@ -0,0 +1,170 @@
+package com.rforristall.java.load.balancer.routing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import com.rforristall.java.load.balancer.backend.Backend;
+
+/**
+ * Route rules compiled into one radix tree of paths per host, so choosing the pool of a request costs a hash
+ * lookup of the host and a walk of the path, without scanning the rules or running regular expressions.
+ * <p>
+ * The routes of the request's host are tried first, then those of wildcard hosts from the most to the least
+ * specific, then the routes without a host. Within a host an exact path beats a path prefix, a longer prefix
+ * beats a shorter one and among routes on the same path the one listed first wins. Requests no route matches
+ * go to the default pool.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class RoutingTable {
+
+  private static final String WILDCARD_PREFIX = "*.";
+
+  private final Map<String, PathTree> hostTrees = new HashMap<>();
+
+  /**
+   * Trees of *.example.com style hosts, keyed by the domain after the wildcard
+   */
+  private final Map<String, PathTree> wildcardTrees = new HashMap<>();
+  private final PathTree anyHostTree = new PathTree();
+  private final BackendPool defaultPool;
+  private final List<BackendPool> pools;
+
+  /**
+   * @param routes {@link List}<{@link RouteRule}> in order of precedence
+   * @param pools {@link List}<{@link BackendPool}> the routes refer to, including the default pool
+   * @param defaultPool {@link BackendPool} requests no route matches are sent to
+   * @throws IllegalArgumentException if a route refers to a pool that does not exist
+   */
+  public RoutingTable(List<RouteRule> routes, List<BackendPool> pools, BackendPool defaultPool) {
+    this.defaultPool = defaultPool;
+    this.pools = Collections.unmodifiableList(new ArrayList<>(pools));
+    Map<String, BackendPool> poolsByName = new HashMap<>();
+    for (BackendPool pool : pools) {
+      poolsByName.put(pool.getName(), pool);
+    }
+    for (RouteRule rule : routes) {
+      BackendPool pool = poolsByName.get(rule.getPool());
+      if (pool == null) {
+        throw new IllegalArgumentException("Route refers to unknown backend pool " + rule.getPool());
+      }
+      PathTree tree;
+      String host = rule.getHost();
+      if (host == null) {
+        tree = anyHostTree;
+      } else if (host.startsWith(WILDCARD_PREFIX)) {
+        tree = wildcardTrees.computeIfAbsent(host.substring(WILDCARD_PREFIX.length()), h -> new PathTree());
+      } else {
+        tree = hostTrees.computeIfAbsent(host, h -> new PathTree());
+      }
+      CompiledRoute route = new CompiledRoute(rule, pool);
+      if (rule.getExactPath() != null) {
+        tree.insert(rule.getExactPath(), false, route);
+      } else {
+        tree.insert(rule.getPathPrefix() != null ? rule.getPathPrefix() : "", true, route);
+      }
+    }
+  }
+
+  /**
+   * Choose the pool of a request
+   * @param host value of the Host header, null if the request had none
+   * @param method request method
+   * @param path request path without the query, in the canonical form of {@link RequestPath}
+   * @param headers looks up the first value of a request header by name
+   * @return {@link BackendPool} to send the request to
+   */
+  public BackendPool route(String host, String method, String path, Function<String, String> headers) {
+    if (host != null && (!hostTrees.isEmpty() || !wildcardTrees.isEmpty())) {
+      String hostName = normalizeHost(host);
+      PathTree tree = hostTrees.get(hostName);
+      CompiledRoute route = tree != null ? tree.lookup(method, path, headers) : null;
+      if (route != null) {
+        return route.getPool();
+      }
+      if (!wildcardTrees.isEmpty()) {
+        for (int dot = hostName.indexOf('.'); dot != -1; dot = hostName.indexOf('.', dot + 1)) {
+          tree = wildcardTrees.get(hostName.substring(dot + 1));
+          route = tree != null ? tree.lookup(method, path, headers) : null;
+          if (route != null) {
+            return route.getPool();
+          }
+        }
+      }
+    }
+    CompiledRoute route = anyHostTree.lookup(method, path, headers);
+    return route != null ? route.getPool() : defaultPool;
+  }
+
+  public BackendPool getDefaultPool() {
+    return defaultPool;
+  }
+
+  /**
+   * @return every {@link BackendPool} including the default pool
+   */
+  public List<BackendPool> getPools() {
+    return pools;
+  }
+
+  /**
+   * Get the backends of all pools, a backend shared by several pools is listed once
+   * @return {@link List}<{@link Backend}> of every pool
+   */
+  public List<Backend> getAllBackends() {
+    Set<Backend> backends = Collections.newSetFromMap(new IdentityHashMap<>());
+    List<Backend> allBackends = new ArrayList<>();
+    for (BackendPool pool : pools) {
+      for (Backend backend : pool.getBackends()) {
+        if (backends.add(backend)) {
+          allBackends.add(backend);
+        }
+      }
+    }
+    return allBackends;
+  }
+
+  /**
+   * Group the backends of all pools by how often they are health checked, a backend shared by several pools is
+   * listed once under the shortest health check interval of its pools
+   * @return {@link Map} from health check interval in milliseconds to the {@link Backend}s checked that often
+   */
+  public Map<Integer, List<Backend>> getBackendsByHealthCheckInterval() {
+    Map<Backend, Integer> intervals = new IdentityHashMap<>();
+    for (BackendPool pool : pools) {
+      for (Backend backend : pool.getBackends()) {
+        intervals.merge(backend, pool.getHealthCheckInterval(), Math::min);
+      }
+    }
+    Map<Integer, List<Backend>> backendsByInterval = new TreeMap<>();
+    for (Backend backend : getAllBackends()) {
+      backendsByInterval.computeIfAbsent(intervals.get(backend), interval -> new ArrayList<>()).add(backend);
+    }
+    return backendsByInterval;
+  }
+
+  /**
+   * Lower case the host and drop its port, the common case of an already lower case name without a port does not allocate
+   */
+  private static String normalizeHost(String host) {
+    int end = host.length();
+    if (host.startsWith("[")) {
+      int bracket = host.indexOf(']');
+      end = bracket != -1 ? bracket + 1 : end;
+    } else {
+      int colon = host.indexOf(':');
+      end = colon != -1 ? colon : end;
+    }
+    String hostName = end == host.length() ? host : host.substring(0, end);
+    return hostName.toLowerCase(Locale.ROOT);
+  }
+
+}
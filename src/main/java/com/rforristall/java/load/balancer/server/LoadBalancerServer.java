@@ -8,14 +8,17 @@ import java.net.http.HttpClient;
 import java.net.http.HttpClient.Redirect;
 import java.net.http.HttpClient.Version;
 import java.net.http.HttpRequest;
-import java.net.http.HttpRequest.BodyPublishers;
 import java.net.http.HttpResponse;
-import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpResponse.BodySubscribers;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -24,11 +27,27 @@ import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.rforristall.java.load.balancer.accesslog.AccessLog;
+import com.rforristall.java.load.balancer.admission.AdmissionController;
 import com.rforristall.java.load.balancer.backend.Backend;
+import com.rforristall.java.load.balancer.body.BodyLimitExceededException;
+import com.rforristall.java.load.balancer.body.RequestBody;
+import com.rforristall.java.load.balancer.body.RequestBodyStore;
+import com.rforristall.java.load.balancer.cluster.ClusterGossip;
 import com.rforristall.java.load.balancer.config.LoadBalancerServerConfig;
 import com.rforristall.java.load.balancer.health.HealthChecker;
+import com.rforristall.java.load.balancer.http2.Http2Listener;
+import com.rforristall.java.load.balancer.metrics.BackendSelectionEvent;
 import com.rforristall.java.load.balancer.metrics.MetricsCollector;
+import com.rforristall.java.load.balancer.metrics.RequestForwardedEvent;
+import com.rforristall.java.load.balancer.metrics.RequestRetryEvent;
+import com.rforristall.java.load.balancer.metrics.RequestTiming;
+import com.rforristall.java.load.balancer.routing.BackendPool;
+import com.rforristall.java.load.balancer.routing.RequestPath;
+import com.rforristall.java.load.balancer.routing.RoutingTable;
+import com.rforristall.java.load.balancer.state.BackendStateSnapshot;
 import com.rforristall.java.load.balancer.strategy.BalancingStrategy;
+import com.rforristall.java.load.balancer.tunnel.TunnelListener;
 import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
@@ -40,40 +59,180 @@ public class LoadBalancerServer {
   
   private final LoadBalancerServerConfig config;
   private final HttpServer httpServer;
+  private final List<Http2Listener> http2Listeners = new ArrayList<>();
+  /**
+   * Listener relaying upgraded connections, null when upgrades are not supported
+   */
+  private final TunnelListener tunnelListener;
   private final HttpClient httpClient;
-  private final BalancingStrategy balancingStrategy;
-  private final HealthChecker healthChecker;
-  private final MetricsCollector metricsCollector;
+  private final RoutingTable routingTable;
+  /**
+   * Backends of every pool, each listed once
+   */
+  private final List<Backend> allBackends;
+  /**
+   * One health checker per pool, running at the pool's interval
+   */
+  private final List<HealthChecker> healthCheckers = new ArrayList<>();
+  /**
+   * One collector for the HTTP/1.1 server followed by one per HTTP/2 listener shard, merged when reporting
+   */
+  private final List<MetricsCollector> metricsCollectors = new ArrayList<>();
   private final ScheduledExecutorService metricsExecutor;
   
+  /**
+   * Access log the handlers publish served requests to, null when the access log is disabled
+   */
+  private final AccessLog accessLog;
+  
+  /**
+   * Snapshot of backend state kept across restarts, null when state is not persisted
+   */
+  private final BackendStateSnapshot stateSnapshot;
+  
+  /**
+   * Gossip shared with the other load balancers of the cluster, null when not running in cluster mode
+   */
+  private final ClusterGossip clusterGossip;
+  
+  /**
+   * Queues requests by priority class while no backend of their pool can take them, one per pool, empty when requests fail at once instead
+   */
+  private final Map<BackendPool, AdmissionController> admissionControllers = new IdentityHashMap<>();
+  
+  /**
+   * Keeps request bodies in pooled memory or spool files so retries can send them again
+   */
+  private final RequestBodyStore requestBodyStore;
+  
   public LoadBalancerServer(LoadBalancerServerConfig config) throws IOException {
     super();
     this.config = config;
-    this.httpServer = HttpServer.create(new InetSocketAddress(config.getPort()), 0);
-    httpServer.createContext("/", new LoadBalancerHandler());
-    httpServer.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    this.routingTable = config.getRoutingTable();
+    this.allBackends = routingTable.getAllBackends();
+    ExecutorService handlerExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    MetricsCollector httpMetrics = new MetricsCollector();
+    metricsCollectors.add(httpMetrics);
+    TunnelListener tunnel = null;
+    try {
+      if (config.getHttp2Port() >= 0) {
+        int shards = config.getHttp2ListenerShards();
+        int http2Port = config.getHttp2Port();
+        for (int shard = 0; shard < shards; shard++) {
+          MetricsCollector shardMetrics = new MetricsCollector();
+          Http2Listener listener = new Http2Listener(new InetSocketAddress(http2Port), new LoadBalancerHandler(shardMetrics), handlerExecutor, config.getHttp2MaxConcurrentStreams(), shards > 1);
+          // Later shards join the port the first one bound, which matters when an ephemeral port was requested
+          http2Port = listener.getPort();
+          http2Listeners.add(listener);
+          metricsCollectors.add(shardMetrics);
+        }
+      }
+      if (config.getTunnelPort() >= 0) {
+        tunnel = new TunnelListener(new InetSocketAddress(config.getTunnelPort()), routingTable, config.getTunnelIdleTimeout());
+      }
+      // Bound last, an HttpServer that never started keeps its port after stop since only its dispatcher thread completes the close
+      this.httpServer = HttpServer.create(new InetSocketAddress(config.getPort()), 0);
+    } catch (IOException | RuntimeException ex) {
+      // A listener left bound would keep accepting connections nothing serves, a SO_REUSEPORT shard would even take its share of the port
+      for (Http2Listener listener : http2Listeners) {
+        listener.stop(0);
+      }
+      if (tunnel != null) {
+        tunnel.stop();
+      }
+      throw ex;
+    }
+    httpServer.createContext("/", new LoadBalancerHandler(httpMetrics));
+    httpServer.setExecutor(handlerExecutor);
+    this.tunnelListener = tunnel;
     this.httpClient = HttpClient.newBuilder()
             .version(Version.HTTP_1_1)
             .followRedirects(Redirect.NORMAL)
             .connectTimeout(Duration.ofMillis(5000))
             .executor(Executors.newVirtualThreadPerTaskExecutor())
             .build();
-    this.balancingStrategy = config.getStrategy();
-    this.healthChecker = new HealthChecker(config.getBackends(), httpClient, config.getHealthCheckInterval());
-    this.metricsCollector = new MetricsCollector();
+    this.clusterGossip = config.getClusterBindAddress() != null
+        ? new ClusterGossip(config.getClusterBindAddress(), config.getClusterSeeds(), allBackends, config.getClusterGossipInterval(), config.getClusterMemberTimeout())
+        : null;
+    // One checker per interval rather than per pool, so a backend shared by several pools is probed once per round
+    for (Map.Entry<Integer, List<Backend>> group : routingTable.getBackendsByHealthCheckInterval().entrySet()) {
+      healthCheckers.add(clusterGossip != null
+          ? new HealthChecker(group.getValue(), httpClient, group.getKey(), clusterGossip::isProbedLocally)
+          : new HealthChecker(group.getValue(), httpClient, group.getKey()));
+    }
+    for (BackendPool pool : routingTable.getPools()) {
+      if (!config.getPriorityClasses().isEmpty()) {
+        admissionControllers.put(pool, new AdmissionController(config.getPriorityClasses(), config.getPriorityRules(), config.getPriorityScheduling(),
+            pool.getStrategy(), pool.getBackends(), config.getMaxConnectionsPerBackend()));
+      }
+    }
+    this.requestBodyStore = new RequestBodyStore(config.getRequestBodySpoolPath(), config.getRequestBodyMemoryThreshold(), config.getRequestBodyMemoryBudget(),
+        config.getMaxRequestBodySize(), config.getRequestBodySpoolBudget());
     this.metricsExecutor = Executors.newSingleThreadScheduledExecutor();
+    this.accessLog = config.getAccessLogPath() != null
+        ? new AccessLog(config.getAccessLogPath(), config.getAccessLogBufferSize(), config.getAccessLogFullPolicy(), config.getAccessLogMaxFileSize(), config.getAccessLogMaxFiles())
+        : null;
+    this.stateSnapshot = config.getStateSnapshotPath() != null
+        ? new BackendStateSnapshot(config.getStateSnapshotPath(), allBackends, config.getStateSnapshotInterval())
+        : null;
   }
   
   public void start() {
+    if (stateSnapshot != null) {
+      // Restore before accepting traffic so backends that were failing are not tried again at full rate
+      stateSnapshot.restore();
+      try {
+        stateSnapshot.start();
+      } catch (IOException ex) {
+        LOGGER.warn("Backend state will not be persisted, failed to map {}", config.getStateSnapshotPath(), ex);
+      }
+    }
+    if (accessLog != null) {
+      accessLog.start();
+    }
     httpServer.start();
-    healthChecker.start();
+    for (Http2Listener listener : http2Listeners) {
+      listener.start();
+    }
+    if (tunnelListener != null) {
+      tunnelListener.start();
+    }
+    if (clusterGossip != null) {
+      clusterGossip.start();
+    }
+    for (HealthChecker healthChecker : healthCheckers) {
+      healthChecker.start();
+    }
+    for (AdmissionController admissionController : admissionControllers.values()) {
+      admissionController.start();
+    }
     
     metricsExecutor.scheduleAtFixedRate(this::logMetrics, 60, 60, TimeUnit.SECONDS);
   }
   
   public void stop() {
     httpServer.stop(5);
-    healthChecker.stop();
+    for (Http2Listener listener : http2Listeners) {
+      listener.stop(5);
+    }
+    if (tunnelListener != null) {
+      tunnelListener.stop();
+    }
+    for (HealthChecker healthChecker : healthCheckers) {
+      healthChecker.stop();
+    }
+    for (AdmissionController admissionController : admissionControllers.values()) {
+      admissionController.stop();
+    }
+    if (clusterGossip != null) {
+      clusterGossip.stop();
+    }
+    if (stateSnapshot != null) {
+      stateSnapshot.stop();
+    }
+    if (accessLog != null) {
+      accessLog.stop();
+    }
     metricsExecutor.shutdown();
     
     try {
@@ -88,9 +247,30 @@ public class LoadBalancerServer {
   }
   
   private void logMetrics() {
-    LOGGER.info(metricsCollector.toString());
-    for (Backend backend : config.getBackends()) {
+    LOGGER.info(MetricsCollector.merge(metricsCollectors).toString());
+    for (Http2Listener listener : http2Listeners) {
+      LOGGER.debug("{} accepted: {}, open: {}", listener.getName(), listener.getAcceptedConnections(), listener.getOpenConnections());
+    }
+    if (tunnelListener != null) {
+      LOGGER.info("Tunnels accepted: {}, open: {}, bytes to backends: {}, bytes to clients: {}", tunnelListener.getAcceptedConnections(),
+          tunnelListener.getOpenTunnels(), tunnelListener.getClientToBackendBytes(), tunnelListener.getBackendToClientBytes());
+    }
+    for (Map.Entry<BackendPool, AdmissionController> entry : admissionControllers.entrySet()) {
+      LOGGER.info("Pool {}: {}", entry.getKey().getName(), entry.getValue());
+    }
+    LOGGER.info(requestBodyStore.toString());
+    if (accessLog != null && accessLog.getDroppedRecords() > 0) {
+      LOGGER.warn("Access log records dropped: {}", accessLog.getDroppedRecords());
+    }
+    if (clusterGossip != null) {
+      LOGGER.info("Cluster members: {}", clusterGossip.getLiveMembers());
+    }
+    for (Backend backend : allBackends) {
       LOGGER.info(backend.toString());
+      if (clusterGossip != null) {
+        LOGGER.debug("{} cluster connections: {}, cluster latency: {}ms, probed locally: {}", backend.getUrl(), backend.getClusterActiveConnections(),
+            String.format("%.3f", backend.getClusterLatencyEwma() / 1_000_000), clusterGossip.isProbedLocally(backend));
+      }
     }
   }
   
@@ -99,87 +279,283 @@ public class LoadBalancerServer {
     private final static String ERROR_MSG_TEMPLATE = "<html><body><h1>%d Error</h1><p>%s</p></body></html>";
     private final static String ERROR_MSG_CONTENT_TYPE_HEADER = "Content-Type";
     private final static String ERROR_MSG_CONTENT_TYPE_VALUE = "text/html; charset=UTF-8";
+    /**
+     * Request headers that are not copied to the backend request, {@link HttpClient} sets or rejects these itself.
+     * Upgrade offers are ignored as RFC 9110 allows, upgraded connections are only relayed by the {@link TunnelListener}.
+     * The stored body is always sent with a Content-Length, so the client's transfer coding is dropped too
+     */
+    private final static Set<String> SKIPPED_REQUEST_HEADERS = Set.of("host", "connection", "content-length", "expect", "upgrade", "http2-settings", "transfer-encoding");
+    
+    /**
+     * Metrics of the listener this handler serves, each listener shard records into its own collector
+     */
+    private final MetricsCollector metricsCollector;
+    
+    private LoadBalancerHandler(MetricsCollector metricsCollector) {
+      this.metricsCollector = metricsCollector;
+    }
 
     @Override
     public void handle(HttpExchange exchange) throws IOException {
+      RequestTiming timing = new RequestTiming();
       String clientAddress = exchange.getRemoteAddress().getAddress().getHostAddress();
       String method = exchange.getRequestMethod();
-      String path = exchange.getRequestURI().toString();
+      // Routed and forwarded on the same canonical path, so a backend never sees a path that was routed as another
+      URI requestUri = exchange.getRequestURI();
+      String routePath = RequestPath.canonicalize(requestUri.getRawPath());
+      String path = requestUri.getRawQuery() != null ? routePath + "?" + requestUri.getRawQuery() : routePath;
+      Headers requestHeaders = exchange.getRequestHeaders();
+      BackendPool pool = routingTable.route(requestHeaders.getFirst("Host"), method, routePath, requestHeaders::getFirst);
       
-      Backend backend = balancingStrategy.selectBackend();
+      // The body is read before a queue slot or backend is taken, so a slow upload holds neither and the backend is chosen on current load
+      RequestBody requestBody;
+      try {
+        requestBody = readRequestBody(exchange, timing);
+      } catch (BodyLimitExceededException ex) {
+        rejectRequest(exchange, ex.getStatusCode(), ex.getMessage(), clientAddress, method, path, timing);
+        return;
+      } catch (IOException ex) {
+        // The client went away or broke off the upload, no backend is to blame
+        rejectRequest(exchange, 400, "Failed to read request body", clientAddress, method, path, timing);
+        return;
+      }
+      
+      try (requestBody) {
+        AdmissionController admissionController = admissionControllers.get(pool);
+        if (admissionController != null) {
+          handleAdmitted(exchange, pool, admissionController, requestBody, clientAddress, method, path, timing);
+          return;
+        }
+        
+        Backend backend = selectBackend(pool, null, Collections.emptyList(), timing);
+        
+        if (backend == null) {
+          sendErrorResponse(exchange, 503, "No healthy backends available");
+          metricsCollector.incrementNoBackendErrors();
+          logAccess(clientAddress, method, path, null, 503, timing);
+          return;
+        }
+        
+        forwardAndRecord(exchange, pool, null, backend, requestBody, clientAddress, method, path, timing);
+      }
+    }
+    
+    /**
+     * Handle a request that waits in the queue of its priority class until a backend of its pool can take it
+     */
+    private void handleAdmitted(HttpExchange exchange, BackendPool pool, AdmissionController admissionController, RequestBody requestBody, String clientAddress,
+        String method, String path, RequestTiming timing) throws IOException {
+      int priorityClass = admissionController.classify(exchange);
+      long queueStart = System.nanoTime();
+      Backend backend = admissionController.acquire(priorityClass);
+      timing.setQueueWaitNanos(System.nanoTime() - queueStart);
       
       if (backend == null) {
-        sendErrorResponse(exchange, 503, "No healthy backends available");
+        sendErrorResponse(exchange, 503, "No backend available for " + admissionController.getPriorityClass(priorityClass).getName() + " requests");
         metricsCollector.incrementNoBackendErrors();
+        logAccess(clientAddress, method, path, null, 503, timing);
         return;
       }
       
-      boolean success = forwardRequestWithRetry(exchange, backend, clientAddress);
+      // The capacity taken here is released by forwardRequestWithRetry, which trades it for another backend's on a retry
+      forwardAndRecord(exchange, pool, admissionController, backend, requestBody, clientAddress, method, path, timing);
+    }
+    
+    /**
+     * @param admissionController {@link AdmissionController} that admitted the backend, null when the pool does not queue requests
+     */
+    private void forwardAndRecord(HttpExchange exchange, BackendPool pool, AdmissionController admissionController, Backend backend, RequestBody requestBody,
+        String clientAddress, String method, String path, RequestTiming timing) {
+      Backend servedBy = forwardRequestWithRetry(exchange, pool, admissionController, backend, requestBody, path, timing);
       
-      if (success) {
+      if (servedBy != null) {
         metricsCollector.incrementSuccessfulRequests();
       } else {
         metricsCollector.incrementFailedRequests();
       }
+      metricsCollector.recordRequestDuration(timing.getElapsedNanos());
+      logAccess(clientAddress, method, path, servedBy, exchange.getResponseCode(), timing);
       
     }
     
-    private boolean forwardRequestWithRetry(HttpExchange httpExchange, Backend initialBackend, String clientAddress) {
+    /**
+     * Answer a request whose body could not be read, without trying a backend
+     */
+    private void rejectRequest(HttpExchange exchange, int status, String message, String clientAddress, String method, String path, RequestTiming timing) {
+      sendErrorResponseQuietly(exchange, status, message);
+      metricsCollector.incrementFailedRequests();
+      metricsCollector.recordRequestDuration(timing.getElapsedNanos());
+      logAccess(clientAddress, method, path, null, status, timing);
+    }
+    
+    /**
+     * Read the whole request body once, before the first attempt, so every attempt sends the same bytes
+     */
+    private RequestBody readRequestBody(HttpExchange exchange, RequestTiming timing) throws IOException {
+      long contentLength = -1;
+      String contentLengthHeader = exchange.getRequestHeaders().getFirst("Content-Length");
+      if (contentLengthHeader != null) {
+        try {
+          contentLength = Long.parseLong(contentLengthHeader.trim());
+        } catch (NumberFormatException ex) {
+          // Leave the length unknown, the body is still bounded by the max request body size
+        }
+      }
+      long phaseStart = System.nanoTime();
+      RequestBody requestBody = requestBodyStore.read(exchange.getRequestBody(), contentLength);
+      timing.setBodyReadNanos(System.nanoTime() - phaseStart);
+      timing.setRequestBytes(requestBody.getLength());
+      return requestBody;
+    }
+    
+    private void logAccess(String clientAddress, String method, String path, Backend backend, int status, RequestTiming timing) {
+      if (accessLog != null) {
+        accessLog.log(clientAddress, method, path, backend != null ? backend.getUrl() : null, status, timing);
+      }
+    }
+    
+    /**
+     * Ask the balancing strategy of the pool for a backend, timing the selection and recording it as a JFR event. With an
+     * {@link AdmissionController} the backend is reserved through it, so only backends below the connection limit are chosen
+     */
+    private Backend selectBackend(BackendPool pool, AdmissionController admissionController, List<Backend> excludedBackends, RequestTiming timing) {
+      BalancingStrategy balancingStrategy = pool.getStrategy();
+      BackendSelectionEvent event = new BackendSelectionEvent();
+      event.begin();
+      long selectionStart = System.nanoTime();
+      Backend backend;
+      if (admissionController != null) {
+        backend = admissionController.reserveBackend(excludedBackends);
+      } else {
+        backend = excludedBackends.isEmpty() ? balancingStrategy.selectBackend() : balancingStrategy.selectBackend(excludedBackends);
+      }
+      timing.addSelectionNanos(System.nanoTime() - selectionStart);
+      event.end();
+      if (event.shouldCommit()) {
+        event.backend = backend != null ? backend.getUrl() : null;
+        event.excluded = excludedBackends.size();
+        event.activeConnections = backend != null ? backend.getActiveConnections() : 0;
+        event.commit();
+      }
+      return backend;
+    }
+    
+    /**
+     * Forward the request, retrying on other backends when an attempt fails. With an {@link AdmissionController} each
+     * retry reserves its backend through the controller before the failed backend's capacity is released, and the
+     * capacity held when forwarding ends is released here.
+     * @return the {@link Backend} that served the request, or null if every attempt failed
+     */
+    private Backend forwardRequestWithRetry(HttpExchange httpExchange, BackendPool pool, AdmissionController admissionController, Backend initialBackend,
+        RequestBody requestBody, String path, RequestTiming timing) {
       Set<Backend> triedBackends = new HashSet<>();
       Backend backend = initialBackend;
       int attempts = 0;
       
-      while(attempts <= config.getMaxRetries() && backend != null) {
-        triedBackends.add(backend);
-        attempts++;
-        
-        try {
-          if (forwardRequest(httpExchange, backend)) return true;
-        } catch (Exception ex) {
-          backend.incrementTotalErrors();
-          backend.incrementConsecutiveFailures();
+      try {
+        while(attempts <= pool.getMaxRetries() && backend != null) {
+          triedBackends.add(backend);
+          attempts++;
+          
+          timing.resetAttempt();
+          RequestForwardedEvent event = new RequestForwardedEvent();
+          event.begin();
+          Exception failure = null;
+          int failures = 0;
+          try {
+            if (forwardRequest(httpExchange, backend, path, requestBody, timing)) {
+              commitForwardedEvent(event, httpExchange, backend, attempts, httpExchange.getResponseCode(), timing);
+              return backend;
+            }
+          } catch (Exception ex) {
+            backend.incrementTotalErrors();
+            failures = backend.incrementConsecutiveFailures();
+            commitForwardedEvent(event, httpExchange, backend, attempts, -1, timing);
+            failure = ex;
+          }
+          
+          Backend failedBackend = backend;
+          backend = attempts <= pool.getMaxRetries()
+              ? selectBackend(pool, admissionController, triedBackends.stream().collect(Collectors.toList()), timing)
+              : null;
+          if (admissionController != null) {
+            admissionController.release(failedBackend);
+          }
+          // Only a failure that is followed by another attempt is a retry
+          if (backend != null && failure != null) {
+            RequestRetryEvent retryEvent = new RequestRetryEvent();
+            if (retryEvent.shouldCommit()) {
+              retryEvent.backend = failedBackend.getUrl();
+              retryEvent.attempt = attempts;
+              retryEvent.consecutiveFailures = failures;
+              retryEvent.error = failure.toString();
+              retryEvent.commit();
+            }
+          }
         }
-        
-        if (attempts <= config.getMaxRetries()) {
-          backend = balancingStrategy.selectBackend(triedBackends.stream().collect(Collectors.toList()));
+      } finally {
+        if (admissionController != null && backend != null) {
+          admissionController.release(backend);
         }
       }
       
-      try {
-        sendErrorResponse(httpExchange, 502, "All backends failed");
-      } catch (IOException ex) {
-        
-      }
+      sendErrorResponseQuietly(httpExchange, 502, "All backends failed");
       
-      return false;
+      return null;
+    }
+    
+    private void commitForwardedEvent(RequestForwardedEvent event, HttpExchange httpExchange, Backend backend, int attempt, int status, RequestTiming timing) {
+      event.end();
+      if (event.shouldCommit()) {
+        event.backend = backend.getUrl();
+        event.method = httpExchange.getRequestMethod();
+        event.path = RequestPath.canonicalize(httpExchange.getRequestURI().getRawPath());
+        event.status = status;
+        event.attempt = attempt;
+        event.bodyRead = timing.getBodyReadNanos();
+        event.upstreamHeaders = timing.getUpstreamHeadersNanos();
+        event.upstreamBody = timing.getUpstreamBodyNanos();
+        event.clientWrite = timing.getClientWriteNanos();
+        event.commit();
+      }
     }
     
-    private boolean forwardRequest(HttpExchange httpExchange, Backend backend) throws IOException, InterruptedException {
+    /**
+     * @param path canonical path and raw query of the request, appended to the backend URL
+     */
+    private boolean forwardRequest(HttpExchange httpExchange, Backend backend, String path, RequestBody requestBody, RequestTiming timing)
+        throws IOException, InterruptedException {
       backend.incrementActiveConnections();
       backend.incrementTotalRequests();
-      long startTime = System.currentTimeMillis();
       
       try {
-        String backendUrl = backend.getUrl() + httpExchange.getRequestURI().toString();
-        byte[] requestBody = httpExchange.getRequestBody().readAllBytes();
-        
+        String backendUrl = backend.getUrl() + path;
         HttpRequest.Builder httpRequestBuilder = HttpRequest.newBuilder().uri(URI.create(backendUrl)).timeout(Duration.ofMillis(config.getRequestTimeout()));
         Headers requestHeaders = httpExchange.getRequestHeaders();
         for (Map.Entry<String, List<String>> entry: requestHeaders.entrySet()) {
           String headerName = entry.getKey();
-          if (!headerName.equalsIgnoreCase("Host") && !headerName.equalsIgnoreCase("Connection")) {
+          if (!SKIPPED_REQUEST_HEADERS.contains(headerName.toLowerCase())) {
             for (String value : entry.getValue()) {
               httpRequestBuilder.header(headerName, value);
             }
           }
         }
-        HttpRequest.BodyPublisher bodyPublisher = requestBody.length > 0 ? BodyPublishers.ofByteArray(requestBody) : BodyPublishers.noBody();
-        httpRequestBuilder.method(httpExchange.getRequestMethod(), bodyPublisher);
+        httpRequestBuilder.method(httpExchange.getRequestMethod(), requestBody.publisher());
         HttpRequest httpRequest = httpRequestBuilder.build();
         
-        HttpResponse<byte[]> response = httpClient.send(httpRequest, BodyHandlers.ofByteArray());
+        // The body handler is invoked as soon as the status line and headers arrive, which marks time to first byte
+        long upstreamStart = System.nanoTime();
+        long[] headersReceived = new long[1];
+        HttpResponse<byte[]> response = httpClient.send(httpRequest, responseInfo -> {
+          headersReceived[0] = System.nanoTime();
+          return BodySubscribers.ofByteArray();
+        });
+        long upstreamEnd = System.nanoTime();
+        timing.setUpstreamHeadersNanos(headersReceived[0] - upstreamStart);
+        timing.setUpstreamBodyNanos(upstreamEnd - headersReceived[0]);
+        backend.recordLatency(upstreamEnd - upstreamStart);
+        
         byte[] responseBody = response.body();
-        httpExchange.sendResponseHeaders(response.statusCode(), responseBody.length);
         Headers exchangeResponseHeaders = httpExchange.getResponseHeaders();
         for (Map.Entry<String, List<String>> entry : response.headers().map().entrySet()) {
           String headerName = entry.getKey();
@@ -187,14 +563,16 @@ public class LoadBalancerServer {
             exchangeResponseHeaders.put(headerName, entry.getValue());
           }
         }
+        // Headers have to be in place before they are sent, for HTTP/2 they are encoded into the HEADERS frame here
+        httpExchange.sendResponseHeaders(response.statusCode(), responseBody.length);
         try (OutputStream os = httpExchange.getResponseBody()) {
           if (responseBody.length > 0) {
             os.write(responseBody);
           }
         }
+        timing.setClientWriteNanos(System.nanoTime() - upstreamEnd);
+        timing.setResponseBytes(responseBody.length);
         
-        long duration = System.currentTimeMillis() - startTime;
-        metricsCollector.recordRequestDuration(duration);
         backend.resetConsecutiveFailures();
         return true;
       } finally {
@@ -202,6 +580,14 @@ public class LoadBalancerServer {
       }
     }
 
+    private void sendErrorResponseQuietly(HttpExchange httpExchange, int statusCode, String message) {
+      try {
+        sendErrorResponse(httpExchange, statusCode, message);
+      } catch (IOException ex) {
+        
+      }
+    }
+
     private void sendErrorResponse(HttpExchange httpExchange, int statusCode, String message) throws IOException {
       String body = String.format(ERROR_MSG_TEMPLATE, statusCode, message);
       byte[] responseBytes = body.getBytes();
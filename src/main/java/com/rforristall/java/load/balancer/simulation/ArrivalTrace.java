@@ -0,0 +1,126 @@
+package com.rforristall.java.load.balancer.simulation;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.SplittableRandom;
+
+/**
+ * Arrival times of the requests a simulation replays. A trace can be iterated any number of times and yields the
+ * same arrivals every time, so every strategy of a simulation sees the same traffic.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@FunctionalInterface
+public interface ArrivalTrace {
+
+  /**
+   * Start iterating the arrivals
+   * @return arrival times in nanoseconds since the start of the simulation, in ascending order
+   */
+  PrimitiveIterator.OfLong arrivals();
+
+  /**
+   * Synthetic trace of independent arrivals at a constant rate
+   * @param requestsPerSecond mean arrival rate
+   * @param requests number of arrivals
+   * @param seed seed of the gaps between arrivals
+   */
+  static ArrivalTrace poisson(double requestsPerSecond, long requests, long seed) {
+    double meanGapNanos = 1_000_000_000 / requestsPerSecond;
+    return () -> new PrimitiveIterator.OfLong() {
+      private final SplittableRandom random = new SplittableRandom(seed);
+      private long produced = 0;
+      private double time = 0;
+
+      @Override
+      public boolean hasNext() {
+        return produced < requests;
+      }
+
+      @Override
+      public long nextLong() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        produced++;
+        time += -meanGapNanos * Math.log(1 - random.nextDouble());
+        return (long) time;
+      }
+    };
+  }
+
+  /**
+   * Trace of given arrival times
+   * @param arrivalNanos arrival times in nanoseconds, sorted into ascending order
+   */
+  static ArrivalTrace recorded(long[] arrivalNanos) {
+    long[] sorted = arrivalNanos.clone();
+    Arrays.sort(sorted);
+    return () -> Arrays.stream(sorted).iterator();
+  }
+
+  /**
+   * Trace of the requests in an access log written by the load balancer, shifted so the first request arrives at 0.
+   * The timestamp starting each line is taken when the response has been written, so the arrival is that timestamp
+   * less the line's total_us. The timestamp only has millisecond resolution, so arrivals are accurate to within 1ms.
+   * @param accessLog {@link Path} of the access log file
+   * @throws IOException if the file cannot be read
+   * @throws IllegalArgumentException if a line does not start with a timestamp or has no total_us field
+   */
+  static ArrivalTrace fromAccessLog(Path accessLog) throws IOException {
+    long[] arrivals = new long[1024];
+    int count = 0;
+    try (BufferedReader reader = Files.newBufferedReader(accessLog, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isBlank()) {
+          continue;
+        }
+        int space = line.indexOf(' ');
+        Instant timestamp;
+        try {
+          timestamp = Instant.parse(space != -1 ? line.substring(0, space) : line);
+        } catch (DateTimeParseException ex) {
+          throw new IllegalArgumentException("Access log line does not start with a timestamp: " + line, ex);
+        }
+        if (count == arrivals.length) {
+          arrivals = Arrays.copyOf(arrivals, count * 2);
+        }
+        arrivals[count++] = timestamp.getEpochSecond() * 1_000_000_000 + timestamp.getNano() - readTotalMicros(line) * 1000;
+      }
+    }
+    long[] sorted = Arrays.copyOf(arrivals, count);
+    Arrays.sort(sorted);
+    long first = sorted.length > 0 ? sorted[0] : 0;
+    for (int i = 0; i < sorted.length; i++) {
+      sorted[i] -= first;
+    }
+    return recorded(sorted);
+  }
+
+  /**
+   * Read the total_us field of an access log line, the time from the request arriving to the response being written
+   */
+  private static long readTotalMicros(String line) {
+    int start = line.indexOf(" total_us=");
+    if (start == -1) {
+      throw new IllegalArgumentException("Access log line has no total_us field: " + line);
+    }
+    start += " total_us=".length();
+    int end = line.indexOf(' ', start);
+    try {
+      return Long.parseLong(end != -1 ? line.substring(start, end) : line.substring(start).trim());
+    } catch (NumberFormatException ex) {
+      throw new IllegalArgumentException("Access log line has a malformed total_us field: " + line, ex);
+    }
+  }
+
+}
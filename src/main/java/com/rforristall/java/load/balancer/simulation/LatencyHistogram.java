@@ -0,0 +1,76 @@
+package com.rforristall.java.load.balancer.simulation;
+
+/**
+ * Log linear histogram of latencies. Every power of two is split into 64 buckets, so a recorded value is off by
+ * less than 1.6% while memory stays fixed however many millions of requests are recorded.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 7;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+  private final long[] counts = new long[(64 - SUB_BUCKET_BITS + 1) * HALF_SUB_BUCKETS + SUB_BUCKETS];
+  private long count = 0;
+  private double sum = 0;
+  private long max = 0;
+
+  void record(long nanos) {
+    long value = Math.max(0, nanos);
+    counts[indexOf(value)]++;
+    count++;
+    sum += value;
+    max = Math.max(max, value);
+  }
+
+  long getCount() {
+    return count;
+  }
+
+  double getMeanNanos() {
+    return count > 0 ? sum / count : 0;
+  }
+
+  long getMaxNanos() {
+    return max;
+  }
+
+  /**
+   * @param quantile between 0 and 1
+   * @return value at the quantile in nanoseconds, 0 if nothing was recorded
+   */
+  long getQuantileNanos(double quantile) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(quantile * count));
+    long seen = 0;
+    for (int index = 0; index < counts.length; index++) {
+      seen += counts[index];
+      if (seen >= rank) {
+        return Math.min(max, midpointOf(index));
+      }
+    }
+    return max;
+  }
+
+  private static int indexOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+  }
+
+  private static long midpointOf(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int shift = index / HALF_SUB_BUCKETS - 1;
+    long lowest = (long) (index - shift * HALF_SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) / 2;
+  }
+
+}
@@ -0,0 +1,396 @@
+package com.rforristall.java.load.balancer.simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.rforristall.java.load.balancer.backend.Backend;
+import com.rforristall.java.load.balancer.strategy.BalancingStrategies;
+import com.rforristall.java.load.balancer.strategy.BalancingStrategy;
+import com.rforristall.java.load.balancer.strategy.BalancingStrategyBuilder;
+
+/**
+ * Discrete event simulation of the load balancer in virtual time. Each strategy is built by
+ * {@link BalancingStrategyBuilder} over backends that keep their state in {@link com.rforristall.java.load.balancer.backend.AbstractBackend},
+ * and requests are selected, counted, retried and health checked the way {@code LoadBalancerServer} does it. Only
+ * the network and the backends themselves are replaced by the {@link SimulatedBackendProfile}s, so a run over
+ * millions of requests takes seconds and involves no sockets or threads.
+ * <p>
+ * Runs are deterministic, the same seed and trace give the same report, and every strategy is run against the
+ * same arrivals and backend random streams so their reports can be compared directly.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class LoadBalancerSimulation {
+
+  private static final int ARRIVAL = 0;
+  private static final int COMPLETION = 1;
+  private static final int GC_START = 2;
+  private static final int GC_END = 3;
+  private static final int HEALTH_CHECK = 4;
+
+  private final List<SimulatedBackendProfile> backends;
+  private final List<BalancingStrategies> strategies;
+  private final ArrivalTrace arrivals;
+  private final int maxRetries;
+  private final long healthCheckIntervalNanos;
+  private final long seed;
+
+  /**
+   * Zone of the simulated load balancer, null to balance over all backends regardless of their zone
+   */
+  private final String zone;
+  private final double zoneMinHealthyFraction;
+  private final int zoneLoadThreshold;
+  private final long crossZoneNanos;
+
+  private LoadBalancerSimulation(LoadBalancerSimulationBuilder builder) {
+    this.backends = Collections.unmodifiableList(new ArrayList<>(builder.backends));
+    this.strategies = Collections.unmodifiableList(new ArrayList<>(builder.strategies));
+    this.arrivals = builder.arrivals;
+    this.maxRetries = builder.maxRetries;
+    this.healthCheckIntervalNanos = TimeUnit.MILLISECONDS.toNanos(builder.healthCheckInterval);
+    this.seed = builder.seed;
+    this.zone = builder.zone;
+    this.zoneMinHealthyFraction = builder.zoneMinHealthyFraction;
+    this.zoneLoadThreshold = builder.zoneLoadThreshold;
+    this.crossZoneNanos = (long) (builder.crossZoneLatencyMs * 1_000_000);
+  }
+
+  /**
+   * Run the trace against every configured strategy
+   * @return {@link List}<{@link SimulationReport}> in the order of the strategies
+   */
+  public List<SimulationReport> run() {
+    List<SimulationReport> reports = new ArrayList<>();
+    for (BalancingStrategies strategy : strategies) {
+      reports.add(run(strategy));
+    }
+    return reports;
+  }
+
+  /**
+   * Run the trace against one strategy
+   * @param strategy {@link BalancingStrategies} to simulate
+   * @return {@link SimulationReport} of the run
+   */
+  public SimulationReport run(BalancingStrategies strategy) {
+    return new Run(strategy).execute();
+  }
+
+  /**
+   * State of a single run, discarded once its report is built
+   */
+  private final class Run {
+
+    private final BalancingStrategies strategyType;
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private final List<SimulatedBackend> simulatedBackends = new ArrayList<>();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private BalancingStrategy balancingStrategy;
+    private PrimitiveIterator.OfLong pendingArrivals;
+    private boolean arrivalScheduled = false;
+    private long now = 0;
+    private long sequence = 0;
+    private long processedEvents = 0;
+    private long requests = 0;
+    private long outstanding = 0;
+    private long rejected = 0;
+    private long failed = 0;
+    private long retries = 0;
+
+    private Run(BalancingStrategies strategyType) {
+      this.strategyType = strategyType;
+    }
+
+    private SimulationReport execute() {
+      long wallClockStart = System.nanoTime();
+      SplittableRandom random = new SplittableRandom(seed);
+      for (SimulatedBackendProfile profile : backends) {
+        simulatedBackends.add(new SimulatedBackend(profile, random.split()));
+      }
+      List<Backend> strategyBackends = new ArrayList<>(simulatedBackends);
+      balancingStrategy = zone != null
+          ? BalancingStrategyBuilder.createZoneAwareStrategy(strategyType, strategyBackends, zone, zoneMinHealthyFraction, zoneLoadThreshold)
+          : BalancingStrategyBuilder.createStrategy(strategyType, strategyBackends);
+      pendingArrivals = arrivals.arrivals();
+      scheduleNextArrival();
+      for (SimulatedBackend backend : simulatedBackends) {
+        scheduleNextPause(backend);
+      }
+      if (healthCheckIntervalNanos > 0) {
+        schedule(HEALTH_CHECK, healthCheckIntervalNanos, null, null);
+      }
+
+      // Pauses and health checks recur forever, the run is over once the last request has completed
+      while (!events.isEmpty() && (arrivalScheduled || outstanding > 0)) {
+        Event event = events.poll();
+        now = event.time;
+        processedEvents++;
+        switch (event.type) {
+          case ARRIVAL -> arrive();
+          case COMPLETION -> complete(event);
+          case GC_START -> startPause(event.backend);
+          case GC_END -> endPause(event.backend);
+          case HEALTH_CHECK -> checkHealth();
+          default -> throw new IllegalStateException("Unknown event " + event.type);
+        }
+      }
+
+      List<SimulationReport.BackendLoad> loads = new ArrayList<>();
+      for (SimulatedBackend backend : simulatedBackends) {
+        backend.accumulateLoad(now);
+        loads.add(backend.report(now));
+      }
+      return new SimulationReport(strategyType, requests, rejected, failed, retries, latencies, now, System.nanoTime() - wallClockStart,
+          processedEvents, loads);
+    }
+
+    private void arrive() {
+      arrivalScheduled = false;
+      requests++;
+      outstanding++;
+      dispatch(new SimulatedRequest(now));
+      scheduleNextArrival();
+    }
+
+    /**
+     * Pick a backend for the next attempt of a request, the same way the load balancer does for the first attempt and every retry
+     */
+    private void dispatch(SimulatedRequest request) {
+      Backend selected = request.triedBackends.isEmpty() ? balancingStrategy.selectBackend() : balancingStrategy.selectBackend(request.triedBackends);
+      if (selected == null) {
+        if (request.triedBackends.isEmpty()) {
+          rejected++;
+        } else {
+          failed++;
+        }
+        outstanding--;
+        return;
+      }
+      SimulatedBackend backend = (SimulatedBackend) selected;
+      request.triedBackends.add(backend);
+      request.backend = backend;
+      request.attemptStartNanos = now;
+      if (zone != null && !zone.equals(backend.getZone())) {
+        request.crossZoneNanos += crossZoneNanos;
+      }
+      backend.accumulateLoad(now);
+      backend.incrementActiveConnections();
+      backend.incrementTotalRequests();
+      backend.recordActiveConnections();
+
+      SimulatedBackendProfile profile = backend.getProfile();
+      request.failing = profile.isDown(now) || (profile.getFailureRate() > 0 && backend.getRandom().nextDouble() < profile.getFailureRate());
+      if (request.failing) {
+        request.completionNanos = now + (long) (profile.getFailureLatencyMs() * 1_000_000);
+        schedule(COMPLETION, request.completionNanos, backend, request);
+      } else if (backend.hasFreeSlot()) {
+        startService(backend, request);
+      } else {
+        backend.getQueue().add(request);
+      }
+    }
+
+    private void startService(SimulatedBackend backend, SimulatedRequest request) {
+      backend.getInService().add(request);
+      request.completionNanos = now + backend.getProfile().getServiceTime().sampleNanos(backend.getRandom());
+      schedule(COMPLETION, request.completionNanos, backend, request);
+    }
+
+    private void startQueued(SimulatedBackend backend) {
+      while (backend.hasFreeSlot() && !backend.getQueue().isEmpty()) {
+        startService(backend, backend.getQueue().poll());
+      }
+    }
+
+    private void complete(Event event) {
+      SimulatedRequest request = event.request;
+      if (event.time != request.completionNanos || event.backend != request.backend) {
+        // Superseded by a later completion time after the backend paused
+        return;
+      }
+      SimulatedBackend backend = event.backend;
+      backend.accumulateLoad(now);
+      backend.decrementActiveConnections();
+      if (request.failing) {
+        backend.incrementTotalErrors();
+        backend.incrementConsecutiveFailures();
+        backend.incrementFailed();
+        if (request.triedBackends.size() <= maxRetries) {
+          retries++;
+          dispatch(request);
+        } else {
+          failed++;
+          outstanding--;
+        }
+        return;
+      }
+      backend.getInService().remove(request);
+      backend.recordLatency(now - request.attemptStartNanos);
+      backend.resetConsecutiveFailures();
+      backend.incrementServed();
+      latencies.record(now - request.arrivalNanos + request.crossZoneNanos);
+      outstanding--;
+      startQueued(backend);
+    }
+
+    /**
+     * Stop the world: requests in service finish later by the length of the pause and queued requests keep waiting
+     */
+    private void startPause(SimulatedBackend backend) {
+      long pause = backend.getProfile().getGcPause().sampleNanos(backend.getRandom());
+      backend.setPaused(true);
+      for (SimulatedRequest request : backend.getInService()) {
+        request.completionNanos += pause;
+        schedule(COMPLETION, request.completionNanos, backend, request);
+      }
+      schedule(GC_END, now + pause, backend, null);
+    }
+
+    private void endPause(SimulatedBackend backend) {
+      backend.setPaused(false);
+      startQueued(backend);
+      scheduleNextPause(backend);
+    }
+
+    private void scheduleNextPause(SimulatedBackend backend) {
+      double meanIntervalNanos = backend.getProfile().getGcIntervalMs() * 1_000_000;
+      if (meanIntervalNanos > 0) {
+        schedule(GC_START, now + (long) (-meanIntervalNanos * Math.log(1 - backend.getRandom().nextDouble())), backend, null);
+      }
+    }
+
+    private void checkHealth() {
+      for (SimulatedBackend backend : simulatedBackends) {
+        backend.probe(now);
+      }
+      schedule(HEALTH_CHECK, now + healthCheckIntervalNanos, null, null);
+    }
+
+    private void scheduleNextArrival() {
+      if (pendingArrivals.hasNext()) {
+        arrivalScheduled = true;
+        schedule(ARRIVAL, Math.max(now, pendingArrivals.nextLong()), null, null);
+      }
+    }
+
+    private void schedule(int type, long time, SimulatedBackend backend, SimulatedRequest request) {
+      events.add(new Event(time, sequence++, type, backend, request));
+    }
+
+  }
+
+  /**
+   * Event at a point of simulated time, events at the same time are processed in the order they were scheduled
+   */
+  private static final class Event implements Comparable<Event> {
+
+    private final long time;
+    private final long sequence;
+    private final int type;
+    private final SimulatedBackend backend;
+    private final SimulatedRequest request;
+
+    private Event(long time, long sequence, int type, SimulatedBackend backend, SimulatedRequest request) {
+      this.time = time;
+      this.sequence = sequence;
+      this.type = type;
+      this.backend = backend;
+      this.request = request;
+    }
+
+    @Override
+    public int compareTo(Event other) {
+      int byTime = Long.compare(time, other.time);
+      return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+    }
+
+  }
+
+  public static class LoadBalancerSimulationBuilder {
+    private List<SimulatedBackendProfile> backends = new ArrayList<>();
+    private List<BalancingStrategies> strategies = Arrays.asList(BalancingStrategies.values());
+    private ArrivalTrace arrivals = null;
+    private int maxRetries = 2;
+    private int healthCheckInterval = 10000;
+    private long seed = 0;
+    private String zone = null;
+    private double zoneMinHealthyFraction = 0.7;
+    private int zoneLoadThreshold = 0;
+    private double crossZoneLatencyMs = 0;
+
+    public LoadBalancerSimulationBuilder backends(List<SimulatedBackendProfile> backends) {
+      this.backends = backends;
+      return this;
+    }
+
+    public LoadBalancerSimulationBuilder strategies(List<BalancingStrategies> strategies) {
+      this.strategies = strategies;
+      return this;
+    }
+
+    public LoadBalancerSimulationBuilder arrivals(ArrivalTrace arrivals) {
+      this.arrivals = arrivals;
+      return this;
+    }
+
+    public LoadBalancerSimulationBuilder maxRetries(int retries) {
+      this.maxRetries = retries;
+      return this;
+    }
+
+    /**
+     * @param ms milliseconds of simulated time between health checks, 0 to never check
+     */
+    public LoadBalancerSimulationBuilder healthCheckInterval(int ms) {
+      this.healthCheckInterval = ms;
+      return this;
+    }
+
+    public LoadBalancerSimulationBuilder seed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    /**
+     * Simulate a load balancer that prefers the backends of its own zone, see {@link com.rforristall.java.load.balancer.strategy.ZoneAwareSelector}
+     * @param zone zone of the load balancer
+     * @param minHealthyFraction fraction of the local backends that must be healthy for all traffic to stay local
+     * @param loadThreshold average active connections per local backend above which traffic spills over, 0 to ignore the load
+     * @param crossZoneLatencyMs round trip time added to every attempt sent to another zone
+     */
+    public LoadBalancerSimulationBuilder zone(String zone, double minHealthyFraction, int loadThreshold, double crossZoneLatencyMs) {
+      this.zone = zone;
+      this.zoneMinHealthyFraction = minHealthyFraction;
+      this.zoneLoadThreshold = loadThreshold;
+      this.crossZoneLatencyMs = crossZoneLatencyMs;
+      return this;
+    }
+
+    public LoadBalancerSimulation build() {
+      if (backends.isEmpty()) {
+        throw new IllegalArgumentException("At least one simulated backend required");
+      }
+      if (strategies.isEmpty()) {
+        throw new IllegalArgumentException("At least one strategy required");
+      }
+      if (arrivals == null) {
+        throw new IllegalArgumentException("Arrival trace required");
+      }
+      if (zone != null && (zoneMinHealthyFraction <= 0 || zoneMinHealthyFraction > 1 || zoneLoadThreshold < 0 || crossZoneLatencyMs < 0)) {
+        throw new IllegalArgumentException("Zone min healthy fraction must be above 0 and at most 1 and the load threshold and cross zone latency must not be negative");
+      }
+      if (maxRetries < 0 || healthCheckInterval < 0) {
+        throw new IllegalArgumentException("Retries and health check interval must not be negative");
+      }
+      return new LoadBalancerSimulation(this);
+    }
+  }
+
+}
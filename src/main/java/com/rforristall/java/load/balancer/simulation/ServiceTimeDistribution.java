@@ -0,0 +1,69 @@
+package com.rforristall.java.load.balancer.simulation;
+
+import java.util.SplittableRandom;
+
+/**
+ * Distribution the simulated time of a request or pause is drawn from
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@FunctionalInterface
+public interface ServiceTimeDistribution {
+
+  /**
+   * Draw a duration
+   * @param random {@link SplittableRandom} of the simulated backend, so every run with the same seed draws the same durations
+   * @return duration in nanoseconds
+   */
+  long sampleNanos(SplittableRandom random);
+
+  /**
+   * @param millis duration every sample takes
+   */
+  static ServiceTimeDistribution constant(double millis) {
+    long nanos = toNanos(millis);
+    return random -> nanos;
+  }
+
+  /**
+   * Memoryless service times, the usual model of a backend doing independent work per request
+   * @param meanMillis mean duration
+   */
+  static ServiceTimeDistribution exponential(double meanMillis) {
+    double mean = toNanos(meanMillis);
+    return random -> (long) (-mean * Math.log(1 - random.nextDouble()));
+  }
+
+  /**
+   * Right skewed service times, the shape most measured request latencies follow
+   * @param medianMillis median duration
+   * @param sigma standard deviation of the logarithm, larger values give a longer tail
+   */
+  static ServiceTimeDistribution logNormal(double medianMillis, double sigma) {
+    double median = toNanos(medianMillis);
+    return random -> (long) (median * Math.exp(sigma * random.nextGaussian()));
+  }
+
+  /**
+   * Heavy tailed service times where a few requests take far longer than the rest
+   * @param minimumMillis shortest duration
+   * @param shape tail index, the tail gets heavier as it approaches 1
+   */
+  static ServiceTimeDistribution pareto(double minimumMillis, double shape) {
+    double minimum = toNanos(minimumMillis);
+    return random -> (long) (minimum / Math.pow(1 - random.nextDouble(), 1 / shape));
+  }
+
+  /**
+   * Mix of two distributions, such as cache hits and misses
+   * @param probability chance a sample is drawn from the first distribution
+   */
+  static ServiceTimeDistribution mixture(double probability, ServiceTimeDistribution first, ServiceTimeDistribution second) {
+    return random -> random.nextDouble() < probability ? first.sampleNanos(random) : second.sampleNanos(random);
+  }
+
+  private static long toNanos(double millis) {
+    return (long) (millis * 1_000_000);
+  }
+
+}
@@ -0,0 +1,120 @@
+package com.rforristall.java.load.balancer.simulation;
+
+import java.net.http.HttpClient;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import com.rforristall.java.load.balancer.backend.AbstractBackend;
+
+/**
+ * Backend living in simulated time. Health, connection counts, failures and the latency average are kept by
+ * {@link AbstractBackend} exactly as for a real backend, so the strategies see the state they would in production,
+ * while the simulation drives the requests in service and the queue in front of them.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+final class SimulatedBackend extends AbstractBackend {
+
+  /**
+   * Same threshold of consecutive failed health checks as {@link com.rforristall.java.load.balancer.backend.BasicBackend}
+   */
+  private static final int MAX_FAILURES = 3;
+
+  private final SimulatedBackendProfile profile;
+  private final SplittableRandom random;
+  private final List<SimulatedRequest> inService = new ArrayList<>();
+  private final ArrayDeque<SimulatedRequest> queue = new ArrayDeque<>();
+  private boolean paused = false;
+  private long served = 0;
+  private long failed = 0;
+  private int peakActiveConnections = 0;
+
+  /**
+   * Integral of the active connections over simulated time, divided by the duration it gives the average load
+   */
+  private double loadArea = 0;
+  private long lastLoadChange = 0;
+
+  SimulatedBackend(SimulatedBackendProfile profile, SplittableRandom random) {
+    super("sim://" + profile.getName(), null, profile.getZone());
+    this.profile = profile;
+    this.random = random;
+  }
+
+  /**
+   * Does nothing, a simulated backend has no endpoint to check over HTTP. Its health is probed by the simulation
+   * in simulated time through {@link #probe(long)}, so a health checker running in real time leaves it unchanged.
+   */
+  @Override
+  public void runHealthCheck(HttpClient httpClient) {
+    // Health checks run as simulation events, see probe(long)
+  }
+
+  /**
+   * Run a health check at a point of simulated time, failing checks mark the backend unhealthy like {@link com.rforristall.java.load.balancer.backend.BasicBackend} does
+   */
+  void probe(long now) {
+    if (!profile.isDown(now)) {
+      setHealthy(true);
+      resetConsecutiveFailures();
+    } else if (incrementConsecutiveFailures() >= MAX_FAILURES && isHealthy()) {
+      setHealthy(false);
+    }
+  }
+
+  /**
+   * Account the load up to now, call before the active connections change
+   */
+  void accumulateLoad(long now) {
+    loadArea += (double) getActiveConnections() * (now - lastLoadChange);
+    lastLoadChange = now;
+  }
+
+  void recordActiveConnections() {
+    peakActiveConnections = Math.max(peakActiveConnections, getActiveConnections());
+  }
+
+  SimulatedBackendProfile getProfile() {
+    return profile;
+  }
+
+  SplittableRandom getRandom() {
+    return random;
+  }
+
+  List<SimulatedRequest> getInService() {
+    return inService;
+  }
+
+  ArrayDeque<SimulatedRequest> getQueue() {
+    return queue;
+  }
+
+  boolean hasFreeSlot() {
+    return !paused && inService.size() < profile.getConcurrency();
+  }
+
+  boolean isPaused() {
+    return paused;
+  }
+
+  void setPaused(boolean paused) {
+    this.paused = paused;
+  }
+
+  void incrementServed() {
+    served++;
+  }
+
+  void incrementFailed() {
+    failed++;
+  }
+
+  SimulationReport.BackendLoad report(long durationNanos) {
+    double averageLoad = durationNanos > 0 ? loadArea / durationNanos : 0;
+    return new SimulationReport.BackendLoad(profile.getName(), served, failed, averageLoad, peakActiveConnections);
+  }
+
+}
@@ -0,0 +1,183 @@
+package com.rforristall.java.load.balancer.simulation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Behaviour of a simulated backend: how long it takes to serve a request, how many requests it serves at once,
+ * how often it stops for garbage collection and when it fails
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class SimulatedBackendProfile {
+
+  private final String name;
+  private final String zone;
+  private final ServiceTimeDistribution serviceTime;
+  private final int concurrency;
+  private final double failureRate;
+  private final double failureLatencyMs;
+  private final double gcIntervalMs;
+  private final ServiceTimeDistribution gcPause;
+  private final List<long[]> outages;
+
+  private SimulatedBackendProfile(SimulatedBackendProfileBuilder builder) {
+    this.name = builder.name;
+    this.zone = builder.zone;
+    this.serviceTime = builder.serviceTime;
+    this.concurrency = builder.concurrency;
+    this.failureRate = builder.failureRate;
+    this.failureLatencyMs = builder.failureLatencyMs;
+    this.gcIntervalMs = builder.gcIntervalMs;
+    this.gcPause = builder.gcPause;
+    this.outages = Collections.unmodifiableList(new ArrayList<>(builder.outages));
+  }
+
+  /**
+   * @param name name the backend is reported under
+   */
+  public static SimulatedBackendProfileBuilder builder(String name) {
+    return new SimulatedBackendProfileBuilder(name);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return zone of the backend, null if its locality is unknown
+   */
+  public String getZone() {
+    return zone;
+  }
+
+  public ServiceTimeDistribution getServiceTime() {
+    return serviceTime;
+  }
+
+  /**
+   * @return number of requests served at once, further requests wait in the backend's queue
+   */
+  public int getConcurrency() {
+    return concurrency;
+  }
+
+  /**
+   * @return chance a request fails without being served
+   */
+  public double getFailureRate() {
+    return failureRate;
+  }
+
+  /**
+   * @return milliseconds a failing request takes to fail
+   */
+  public double getFailureLatencyMs() {
+    return failureLatencyMs;
+  }
+
+  /**
+   * @return mean milliseconds between garbage collection pauses, 0 if the backend never pauses
+   */
+  public double getGcIntervalMs() {
+    return gcIntervalMs;
+  }
+
+  public ServiceTimeDistribution getGcPause() {
+    return gcPause;
+  }
+
+  /**
+   * Check if the backend is down at a point of simulated time
+   * @param nanos simulated time in nanoseconds
+   * @return true if the time falls into an outage
+   */
+  public boolean isDown(long nanos) {
+    for (long[] outage : outages) {
+      if (nanos >= outage[0] && nanos < outage[1]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public static class SimulatedBackendProfileBuilder {
+    private final String name;
+    private String zone = null;
+    private ServiceTimeDistribution serviceTime = ServiceTimeDistribution.exponential(10);
+    private int concurrency = 16;
+    private double failureRate = 0;
+    private double failureLatencyMs = 1;
+    private double gcIntervalMs = 0;
+    private ServiceTimeDistribution gcPause = ServiceTimeDistribution.constant(50);
+    private List<long[]> outages = new ArrayList<>();
+
+    private SimulatedBackendProfileBuilder(String name) {
+      this.name = name;
+    }
+
+    public SimulatedBackendProfileBuilder zone(String zone) {
+      this.zone = zone;
+      return this;
+    }
+
+    public SimulatedBackendProfileBuilder serviceTime(ServiceTimeDistribution serviceTime) {
+      this.serviceTime = serviceTime;
+      return this;
+    }
+
+    public SimulatedBackendProfileBuilder concurrency(int concurrency) {
+      this.concurrency = concurrency;
+      return this;
+    }
+
+    /**
+     * @param failureRate chance between 0 and 1 a request fails
+     * @param failureLatencyMs milliseconds a failing request takes to fail
+     */
+    public SimulatedBackendProfileBuilder failures(double failureRate, double failureLatencyMs) {
+      this.failureRate = failureRate;
+      this.failureLatencyMs = failureLatencyMs;
+      return this;
+    }
+
+    /**
+     * Stop the world pauses, requests in service are frozen and queued requests wait until the pause ends
+     * @param meanIntervalMs mean milliseconds between the end of a pause and the start of the next
+     * @param pause {@link ServiceTimeDistribution} of the pause lengths
+     */
+    public SimulatedBackendProfileBuilder gcPauses(double meanIntervalMs, ServiceTimeDistribution pause) {
+      this.gcIntervalMs = meanIntervalMs;
+      this.gcPause = pause;
+      return this;
+    }
+
+    /**
+     * Window of simulated time during which every request and health check to the backend fails
+     * @param startMs start of the outage
+     * @param durationMs length of the outage
+     */
+    public SimulatedBackendProfileBuilder outage(long startMs, long durationMs) {
+      this.outages.add(new long[] {startMs * 1_000_000, (startMs + durationMs) * 1_000_000});
+      return this;
+    }
+
+    public SimulatedBackendProfile build() {
+      if (name == null || name.isEmpty()) {
+        throw new IllegalArgumentException("Simulated backend needs a name");
+      }
+      if (serviceTime == null || concurrency < 1) {
+        throw new IllegalArgumentException("Simulated backend " + name + " needs a service time and a concurrency of at least 1");
+      }
+      if (failureRate < 0 || failureRate > 1 || failureLatencyMs < 0) {
+        throw new IllegalArgumentException("Failure rate of " + name + " must be between 0 and 1");
+      }
+      if (gcIntervalMs < 0 || (gcIntervalMs > 0 && gcPause == null)) {
+        throw new IllegalArgumentException("GC pauses of " + name + " need a non negative interval and a pause distribution");
+      }
+      return new SimulatedBackendProfile(this);
+    }
+  }
+
+}
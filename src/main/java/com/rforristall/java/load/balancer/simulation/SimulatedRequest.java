@@ -0,0 +1,35 @@
+package com.rforristall.java.load.balancer.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.rforristall.java.load.balancer.backend.Backend;
+
+/**
+ * Request travelling through a simulation, kept across its attempts like the load balancer keeps a request across retries
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+final class SimulatedRequest {
+
+  final long arrivalNanos;
+  final List<Backend> triedBackends = new ArrayList<>(2);
+  SimulatedBackend backend;
+  long attemptStartNanos;
+
+  /**
+   * Time the current attempt completes, moved out by pauses of the backend. A completion event for any other time is stale
+   */
+  long completionNanos;
+  boolean failing;
+
+  /**
+   * Round trip time added by attempts sent to backends in other zones
+   */
+  long crossZoneNanos;
+
+  SimulatedRequest(long arrivalNanos) {
+    this.arrivalNanos = arrivalNanos;
+  }
+
+}
@@ -0,0 +1,220 @@
+package com.rforristall.java.load.balancer.simulation;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.rforristall.java.load.balancer.strategy.BalancingStrategies;
+
+/**
+ * Outcome of running one balancing strategy against a simulated trace: latency percentiles of the requests that
+ * were served, how many failed, and how evenly the load was spread over the backends
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class SimulationReport {
+
+  private final BalancingStrategies strategy;
+  private final long requests;
+  private final long rejected;
+  private final long failed;
+  private final long retries;
+  private final long p50Nanos;
+  private final long p90Nanos;
+  private final long p99Nanos;
+  private final long p999Nanos;
+  private final long maxNanos;
+  private final double meanNanos;
+  private final long simulatedNanos;
+  private final long wallClockNanos;
+  private final long events;
+  private final List<BackendLoad> backendLoads;
+
+  SimulationReport(BalancingStrategies strategy, long requests, long rejected, long failed, long retries, LatencyHistogram latencies,
+      long simulatedNanos, long wallClockNanos, long events, List<BackendLoad> backendLoads) {
+    this.strategy = strategy;
+    this.requests = requests;
+    this.rejected = rejected;
+    this.failed = failed;
+    this.retries = retries;
+    this.p50Nanos = latencies.getQuantileNanos(0.5);
+    this.p90Nanos = latencies.getQuantileNanos(0.9);
+    this.p99Nanos = latencies.getQuantileNanos(0.99);
+    this.p999Nanos = latencies.getQuantileNanos(0.999);
+    this.maxNanos = latencies.getMaxNanos();
+    this.meanNanos = latencies.getMeanNanos();
+    this.simulatedNanos = simulatedNanos;
+    this.wallClockNanos = wallClockNanos;
+    this.events = events;
+    this.backendLoads = Collections.unmodifiableList(backendLoads);
+  }
+
+  public BalancingStrategies getStrategy() {
+    return strategy;
+  }
+
+  /**
+   * @return number of requests that arrived
+   */
+  public long getRequests() {
+    return requests;
+  }
+
+  /**
+   * @return requests answered without trying a backend because the strategy found no healthy one
+   */
+  public long getRejected() {
+    return rejected;
+  }
+
+  /**
+   * @return requests that failed on every backend they were tried on
+   */
+  public long getFailed() {
+    return failed;
+  }
+
+  /**
+   * @return attempts made after the first attempt of a request failed
+   */
+  public long getRetries() {
+    return retries;
+  }
+
+  /**
+   * @return requests that were served
+   */
+  public long getSucceeded() {
+    return requests - rejected - failed;
+  }
+
+  public long getP50Nanos() {
+    return p50Nanos;
+  }
+
+  public long getP90Nanos() {
+    return p90Nanos;
+  }
+
+  public long getP99Nanos() {
+    return p99Nanos;
+  }
+
+  public long getP999Nanos() {
+    return p999Nanos;
+  }
+
+  public long getMaxNanos() {
+    return maxNanos;
+  }
+
+  public double getMeanNanos() {
+    return meanNanos;
+  }
+
+  /**
+   * @return simulated time from the start until the last request completed
+   */
+  public long getSimulatedNanos() {
+    return simulatedNanos;
+  }
+
+  /**
+   * @return real time the run took
+   */
+  public long getWallClockNanos() {
+    return wallClockNanos;
+  }
+
+  /**
+   * @return number of simulation events processed
+   */
+  public long getEvents() {
+    return events;
+  }
+
+  public List<BackendLoad> getBackendLoads() {
+    return backendLoads;
+  }
+
+  /**
+   * Get how unevenly the load was spread, the busiest backend's average active connections over the mean of all backends
+   * @return 1 for a perfectly even spread, higher the more the busiest backend was overloaded
+   */
+  public double getLoadImbalance() {
+    double total = 0;
+    double busiest = 0;
+    for (BackendLoad load : backendLoads) {
+      total += load.getAverageActiveConnections();
+      busiest = Math.max(busiest, load.getAverageActiveConnections());
+    }
+    return total > 0 ? busiest / (total / backendLoads.size()) : 1;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder summary = new StringBuilder(strategy.getName())
+        .append(": requests ").append(requests)
+        .append(", succeeded ").append(getSucceeded())
+        .append(", failed ").append(failed)
+        .append(", rejected ").append(rejected)
+        .append(", retries ").append(retries)
+        .append(String.format(", p50 %.3fms, p90 %.3fms, p99 %.3fms, p99.9 %.3fms, max %.3fms, mean %.3fms", p50Nanos / 1e6, p90Nanos / 1e6,
+            p99Nanos / 1e6, p999Nanos / 1e6, maxNanos / 1e6, meanNanos / 1e6))
+        .append(String.format(", load imbalance %.3f", getLoadImbalance()))
+        .append(String.format(", simulated %.1fs in %.0fms", simulatedNanos / 1e9, wallClockNanos / 1e6));
+    for (BackendLoad load : backendLoads) {
+      summary.append("\n  ").append(load);
+    }
+    return summary.toString();
+  }
+
+  /**
+   * Load one backend carried during a simulation run
+   */
+  public static class BackendLoad {
+
+    private final String name;
+    private final long served;
+    private final long failed;
+    private final double averageActiveConnections;
+    private final int peakActiveConnections;
+
+    BackendLoad(String name, long served, long failed, double averageActiveConnections, int peakActiveConnections) {
+      this.name = name;
+      this.served = served;
+      this.failed = failed;
+      this.averageActiveConnections = averageActiveConnections;
+      this.peakActiveConnections = peakActiveConnections;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getServed() {
+      return served;
+    }
+
+    public long getFailed() {
+      return failed;
+    }
+
+    /**
+     * @return active connections averaged over simulated time, requests queued at the backend included
+     */
+    public double getAverageActiveConnections() {
+      return averageActiveConnections;
+    }
+
+    public int getPeakActiveConnections() {
+      return peakActiveConnections;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s: served %d, failed %d, average active %.2f, peak active %d", name, served, failed, averageActiveConnections, peakActiveConnections);
+    }
+
+  }
+
+}
@@ -0,0 +1,234 @@
+package com.rforristall.java.load.balancer.state;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rforristall.java.load.balancer.backend.Backend;
+
+/**
+ * Periodically copies the state of every backend into a memory-mapped file with a fixed binary layout and reads
+ * it back on startup, so a restarted load balancer routes around backends that were failing before it stopped.
+ * <p>
+ * The snapshot is written from its own thread by reading the backends' atomic counters, request threads never
+ * touch the file. Layout, all values big endian:
+ * <pre>
+ * header (32 bytes): magic int, version int, record count int, reserved int, written at epoch millis long, sequence long
+ * record (256 bytes): url length short, url UTF-8 bytes padded to 238, flags int (bit 0 healthy),
+ *                     consecutive failures int, latency EWMA in nanoseconds double
+ * </pre>
+ * The sequence is odd while a snapshot is being written, a file left with an odd sequence is ignored on startup.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class BackendStateSnapshot {
+  
+  private static final Logger LOGGER = LoggerFactory.getLogger(BackendStateSnapshot.class);
+  
+  private static final int MAGIC = 0x4C425354;
+  private static final int VERSION = 1;
+  
+  private static final int HEADER_SIZE = 32;
+  private static final int MAGIC_OFFSET = 0;
+  private static final int VERSION_OFFSET = 4;
+  private static final int COUNT_OFFSET = 8;
+  private static final int WRITTEN_AT_OFFSET = 16;
+  private static final int SEQUENCE_OFFSET = 24;
+  
+  private static final int RECORD_SIZE = 256;
+  private static final int MAX_URL_LENGTH = 238;
+  private static final int URL_LENGTH_OFFSET = 0;
+  private static final int URL_OFFSET = 2;
+  private static final int FLAGS_OFFSET = 240;
+  private static final int FAILURES_OFFSET = 244;
+  private static final int LATENCY_OFFSET = 248;
+  
+  private static final int FLAG_HEALTHY = 0x1;
+  
+  private final Path path;
+  private final List<Backend> backends;
+  private final int intervalMs;
+  private final ScheduledExecutorService scheduler;
+  private FileChannel channel;
+  private MappedByteBuffer mapped;
+  private long sequence = 0;
+  
+  /**
+   * @param path file the snapshot is stored in
+   * @param backends {@link List}<{@link Backend}> whose state is saved and restored
+   * @param intervalMs milliseconds between snapshots
+   */
+  public BackendStateSnapshot(Path path, List<Backend> backends, int intervalMs) {
+    this.path = path;
+    this.backends = backends;
+    this.intervalMs = intervalMs;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "BackendStateSnapshot");
+        t.setDaemon(true);
+        return t;
+    });
+  }
+  
+  /**
+   * Load the state saved by a previous run into the backends with a matching URL
+   * @return number of backends that had their state restored
+   */
+  public int restore() {
+    if (!Files.isRegularFile(path)) {
+      return 0;
+    }
+    try (FileChannel readChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = readChannel.size();
+      if (size < HEADER_SIZE) {
+        return 0;
+      }
+      MappedByteBuffer snapshot = readChannel.map(MapMode.READ_ONLY, 0, size);
+      if (snapshot.getInt(MAGIC_OFFSET) != MAGIC || snapshot.getInt(VERSION_OFFSET) != VERSION) {
+        LOGGER.warn("Ignoring backend state snapshot {} with unknown format", path);
+        return 0;
+      }
+      if ((snapshot.getLong(SEQUENCE_OFFSET) & 1) != 0) {
+        LOGGER.warn("Ignoring backend state snapshot {} that was only partially written", path);
+        return 0;
+      }
+      int count = snapshot.getInt(COUNT_OFFSET);
+      if (count < 0 || HEADER_SIZE + (long) count * RECORD_SIZE > size) {
+        LOGGER.warn("Ignoring truncated backend state snapshot {}", path);
+        return 0;
+      }
+      int restored = 0;
+      for (int i = 0; i < count; i++) {
+        int record = HEADER_SIZE + i * RECORD_SIZE;
+        Backend backend = findBackend(readUrl(snapshot, record));
+        if (backend == null) {
+          continue;
+        }
+        backend.setHealthy((snapshot.getInt(record + FLAGS_OFFSET) & FLAG_HEALTHY) != 0);
+        backend.setConsecutiveFailures(snapshot.getInt(record + FAILURES_OFFSET));
+        backend.setLatencyEwma(snapshot.getDouble(record + LATENCY_OFFSET));
+        restored++;
+      }
+      LOGGER.info("Restored state of {} backends from snapshot written at {}", restored, snapshot.getLong(WRITTEN_AT_OFFSET));
+      return restored;
+    } catch (IOException ex) {
+      LOGGER.warn("Failed to read backend state snapshot {}", path, ex);
+      return 0;
+    }
+  }
+  
+  /**
+   * Map the snapshot file and start writing snapshots on the interval
+   * @throws IOException if the snapshot file cannot be created or mapped
+   */
+  public void start() throws IOException {
+    Path parent = path.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    long size = HEADER_SIZE + (long) backends.size() * RECORD_SIZE;
+    mapped = channel.map(MapMode.READ_WRITE, 0, size);
+    // The previous run's records are about to be relabelled with this run's URLs, so the file is marked partial
+    // before the layout changes and stays that way until every record holds current state
+    sequence = mapped.getLong(SEQUENCE_OFFSET) | 1L;
+    mapped.putLong(SEQUENCE_OFFSET, sequence);
+    channel.truncate(size);
+    mapped.putInt(MAGIC_OFFSET, MAGIC);
+    mapped.putInt(VERSION_OFFSET, VERSION);
+    mapped.putInt(COUNT_OFFSET, backends.size());
+    for (int i = 0; i < backends.size(); i++) {
+      writeUrl(HEADER_SIZE + i * RECORD_SIZE, backends.get(i).getUrl());
+    }
+    completeWrite();
+    scheduler.scheduleAtFixedRate(this::write, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+  }
+  
+  /**
+   * Stop writing snapshots, the final state is written and forced to disk before the file is closed
+   */
+  public void stop() {
+    scheduler.shutdown();
+    try {
+      if (!scheduler.awaitTermination(10, TimeUnit.SECONDS)) {
+          scheduler.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+        scheduler.shutdownNow();
+    }
+    if (mapped == null) {
+      return;
+    }
+    write();
+    mapped.force();
+    try {
+      channel.close();
+    } catch (IOException ex) {
+      LOGGER.warn("Failed to close backend state snapshot {}", path, ex);
+    }
+  }
+  
+  /**
+   * Copy the current backend state into the mapped file, the page cache carries it to disk without blocking
+   */
+  private void write() {
+    mapped.putLong(SEQUENCE_OFFSET, ++sequence);
+    completeWrite();
+  }
+  
+  /**
+   * Copy the backend state into the records of a snapshot already marked as being written, then mark it complete
+   */
+  private void completeWrite() {
+    for (int i = 0; i < backends.size(); i++) {
+      Backend backend = backends.get(i);
+      int record = HEADER_SIZE + i * RECORD_SIZE;
+      mapped.putInt(record + FLAGS_OFFSET, backend.isHealthy() ? FLAG_HEALTHY : 0);
+      mapped.putInt(record + FAILURES_OFFSET, backend.getConsecutiveFailures());
+      mapped.putDouble(record + LATENCY_OFFSET, backend.getLatencyEwma());
+    }
+    mapped.putLong(WRITTEN_AT_OFFSET, System.currentTimeMillis());
+    mapped.putLong(SEQUENCE_OFFSET, ++sequence);
+  }
+  
+  private void writeUrl(int record, String url) {
+    byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+    int length = Math.min(bytes.length, MAX_URL_LENGTH);
+    mapped.putShort(record + URL_LENGTH_OFFSET, (short) length);
+    mapped.put(record + URL_OFFSET, Arrays.copyOf(bytes, MAX_URL_LENGTH));
+  }
+  
+  private String readUrl(MappedByteBuffer snapshot, int record) {
+    int length = Math.min(snapshot.getShort(record + URL_LENGTH_OFFSET), MAX_URL_LENGTH);
+    byte[] bytes = new byte[Math.max(length, 0)];
+    snapshot.get(record + URL_OFFSET, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+  
+  /**
+   * URLs longer than the record can hold are matched on their stored prefix
+   */
+  private Backend findBackend(String url) {
+    for (Backend backend : backends) {
+      String backendUrl = backend.getUrl();
+      byte[] bytes = backendUrl.getBytes(StandardCharsets.UTF_8);
+      if (bytes.length > MAX_URL_LENGTH ? new String(bytes, 0, MAX_URL_LENGTH, StandardCharsets.UTF_8).equals(url) : backendUrl.equals(url)) {
+        return backend;
+      }
+    }
+    return null;
+  }
+
+}
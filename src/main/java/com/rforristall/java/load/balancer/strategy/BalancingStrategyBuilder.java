@@ -16,5 +16,13 @@ public class BalancingStrategyBuilder {
         return null; 
     }
   }
+  
+  /**
+   * Create a strategy that prefers the backends of the local zone and spills over to the other zones when the local zone runs short of capacity
+   * @see ZoneAwareSelector
+   */
+  public static BalancingStrategy createZoneAwareStrategy(BalancingStrategies strategy, List<Backend> backends, String localZone, double minHealthyFraction, int loadThreshold) {
+    return new ZoneAwareSelector(strategy, backends, localZone, minHealthyFraction, loadThreshold);
+  }
 
 }
@@ -22,7 +22,10 @@ public class LeastConnectionsSelector extends AbstractBalancingStrategy{
   @Override
   public Backend selectBackend(List<Backend> excludedBackends) {
     List<Backend> backendOptions = filterBackends(excludedBackends);
-    return backendOptions.stream().min(Comparator.comparingInt(Backend::getActiveConnections)).orElse(null);
+    // Ties, common while the load is light, go to the backend the cluster has seen respond fastest
+    return backendOptions.stream()
+        .min(Comparator.comparingInt(Backend::getClusterActiveConnections).thenComparingDouble(Backend::getClusterLatencyEwma))
+        .orElse(null);
   }
 
   
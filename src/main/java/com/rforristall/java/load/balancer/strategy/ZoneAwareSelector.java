@@ -0,0 +1,211 @@
+package com.rforristall.java.load.balancer.strategy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.rforristall.java.load.balancer.backend.Backend;
+
+/**
+ * Strategy that keeps traffic in the load balancer's own zone and wraps another strategy, which picks the backend
+ * among the local backends or, for traffic that spills over, among the backends of one of the other zones.
+ * <p>
+ * All traffic stays local while enough local backends are healthy and they are not overloaded. Once the healthy
+ * fraction of the local backends drops below the minimum, or their average load rises above the threshold, only
+ * the share of traffic the zone still has capacity for stays local and the rest spills over. Spilled requests are
+ * spread over the other zones in proportion to their capacity, the number of healthy backends scaled down by the
+ * same load threshold, so a zone that is mostly down or already overloaded takes little of the spill and a zone
+ * with no healthy backend takes none. A request that finds no backend in the zone chosen for it, for instance on a
+ * retry that excluded them all, tries the other remote zones and then the local one, or the remote ones if it was
+ * local.
+ * <p>
+ * Zones are the only level of locality. Backends carry a zone but no rack or host, so within a zone every backend
+ * is treated as equally near.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class ZoneAwareSelector implements BalancingStrategy {
+
+  private static final double GOLDEN_RATIO_CONJUGATE = 0.6180339887498949;
+
+  private final String localZone;
+  private final List<Backend> localBackends;
+  private final BalancingStrategy localStrategy;
+  private final List<RemoteZone> remoteZones;
+  private final double minHealthyFraction;
+  private final int loadThreshold;
+
+  /**
+   * Number of selections so far, the spill decision spreads the local share evenly over consecutive selections
+   */
+  private final AtomicLong selections = new AtomicLong(0);
+
+  /**
+   * Number of requests spilled over so far, spreads them over the remote zones by their capacity
+   */
+  private final AtomicLong spills = new AtomicLong(0);
+
+  /**
+   * @param strategy {@link BalancingStrategies} wrapped for the local and for the other zones
+   * @param backends {@link List}<{@link Backend}> of every zone
+   * @param localZone zone of the load balancer
+   * @param minHealthyFraction fraction of the local backends that must be healthy for all traffic to stay local
+   * @param loadThreshold average active connections per healthy local backend above which traffic spills over, 0 to ignore the load
+   */
+  protected ZoneAwareSelector(BalancingStrategies strategy, List<Backend> backends, String localZone, double minHealthyFraction, int loadThreshold) {
+    List<Backend> local = new ArrayList<>();
+    Map<String, List<Backend>> remote = new LinkedHashMap<>();
+    for (Backend backend : backends) {
+      if (Objects.equals(localZone, backend.getZone())) {
+        local.add(backend);
+      } else {
+        remote.computeIfAbsent(backend.getZone(), zone -> new ArrayList<>()).add(backend);
+      }
+    }
+    this.localZone = localZone;
+    this.localBackends = Collections.unmodifiableList(local);
+    this.localStrategy = BalancingStrategyBuilder.createStrategy(strategy, localBackends);
+    List<RemoteZone> zones = new ArrayList<>();
+    for (List<Backend> zoneBackends : remote.values()) {
+      List<Backend> unmodifiable = Collections.unmodifiableList(zoneBackends);
+      zones.add(new RemoteZone(unmodifiable, BalancingStrategyBuilder.createStrategy(strategy, unmodifiable)));
+    }
+    this.remoteZones = Collections.unmodifiableList(zones);
+    this.minHealthyFraction = minHealthyFraction;
+    this.loadThreshold = loadThreshold;
+  }
+
+  @Override
+  public Backend selectBackend() {
+    return selectBackend(Collections.emptyList());
+  }
+
+  @Override
+  public Backend selectBackend(List<Backend> excludedBackends) {
+    double localShare = getLocalShare();
+    long selection = selections.getAndIncrement();
+    // Local whenever the running total of the share passes a whole request, so exactly the share stays local without drawing random numbers
+    boolean local = localShare >= 1 || (long) ((selection + 1) * localShare) > (long) (selection * localShare);
+    if (local) {
+      Backend backend = select(localStrategy, excludedBackends);
+      return backend != null ? backend : selectRemote(excludedBackends);
+    }
+    Backend backend = selectRemote(excludedBackends);
+    return backend != null ? backend : select(localStrategy, excludedBackends);
+  }
+
+  public String getLocalZone() {
+    return localZone;
+  }
+
+  /**
+   * Get the share of traffic the local zone has capacity for
+   * @return 1 while all traffic stays local, down to 0 when no local backend is healthy
+   */
+  public double getLocalShare() {
+    int healthy = 0;
+    long load = 0;
+    for (Backend backend : localBackends) {
+      if (backend.isHealthy()) {
+        healthy++;
+        load += backend.getClusterActiveConnections();
+      }
+    }
+    if (healthy == 0) {
+      return 0;
+    }
+    double share = 1;
+    double healthyFraction = (double) healthy / localBackends.size();
+    if (healthyFraction < minHealthyFraction) {
+      share = healthyFraction / minHealthyFraction;
+    }
+    return Math.min(share, getLoadFactor(load, healthy));
+  }
+
+  /**
+   * Pick a backend of a remote zone, trying the zone the spread chooses first and then the others in order
+   */
+  private Backend selectRemote(List<Backend> excludedBackends) {
+    RemoteZone chosen = nextRemoteZone();
+    Backend backend = chosen != null ? select(chosen.strategy, excludedBackends) : null;
+    for (int i = 0; backend == null && i < remoteZones.size(); i++) {
+      if (remoteZones.get(i) != chosen) {
+        backend = select(remoteZones.get(i).strategy, excludedBackends);
+      }
+    }
+    return backend;
+  }
+
+  /**
+   * Choose the remote zone of a spilled request in proportion to the capacity of the zones
+   * @return {@link RemoteZone} to try first, null if no remote zone has a healthy backend
+   */
+  private RemoteZone nextRemoteZone() {
+    double[] capacities = new double[remoteZones.size()];
+    double total = 0;
+    for (int i = 0; i < capacities.length; i++) {
+      capacities[i] = getCapacity(remoteZones.get(i).backends);
+      total += capacities[i];
+    }
+    if (total == 0) {
+      return null;
+    }
+    // Multiples of the golden ratio fall evenly over [0, 1), so consecutive spills split by capacity without drawing random numbers
+    double point = (spills.getAndIncrement() * GOLDEN_RATIO_CONJUGATE) % 1 * total;
+    RemoteZone chosen = null;
+    for (int i = 0; i < capacities.length; i++) {
+      if (capacities[i] > 0) {
+        chosen = remoteZones.get(i);
+        point -= capacities[i];
+        if (point < 0) {
+          break;
+        }
+      }
+    }
+    return chosen;
+  }
+
+  /**
+   * Get the capacity of a zone, its healthy backends scaled down once their average load is above the threshold
+   */
+  private double getCapacity(List<Backend> backends) {
+    int healthy = 0;
+    long load = 0;
+    for (Backend backend : backends) {
+      if (backend.isHealthy()) {
+        healthy++;
+        load += backend.getClusterActiveConnections();
+      }
+    }
+    return healthy == 0 ? 0 : healthy * getLoadFactor(load, healthy);
+  }
+
+  /**
+   * Get the share of its capacity a zone can take, 1 unless the average load of its healthy backends is above the threshold
+   */
+  private double getLoadFactor(long load, int healthy) {
+    double averageLoad = (double) load / healthy;
+    return loadThreshold > 0 && averageLoad > loadThreshold ? loadThreshold / averageLoad : 1;
+  }
+
+  private static Backend select(BalancingStrategy strategy, List<Backend> excludedBackends) {
+    return excludedBackends.isEmpty() ? strategy.selectBackend() : strategy.selectBackend(excludedBackends);
+  }
+
+  private static final class RemoteZone {
+
+    private final List<Backend> backends;
+    private final BalancingStrategy strategy;
+
+    private RemoteZone(List<Backend> backends, BalancingStrategy strategy) {
+      this.backends = backends;
+      this.strategy = strategy;
+    }
+
+  }
+
+}
@@ -0,0 +1,122 @@
+package com.rforristall.java.load.balancer.tunnel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Raw byte relay between a client connection and a backend connection after a protocol upgrade. Each direction
+ * is pumped by its own thread through a direct buffer, end of stream in one direction is passed on as a half close
+ * so the other direction keeps flowing until it ends too.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+final class Tunnel {
+
+  private final SocketChannel client;
+  private volatile SocketChannel backend;
+  private final AtomicLong clientToBackendBytes = new AtomicLong(0);
+  private final AtomicLong backendToClientBytes = new AtomicLong(0);
+
+  /**
+   * {@link System#nanoTime()} of the last read in either direction, checked by the idle reaper
+   */
+  private volatile long lastActivityNanos = System.nanoTime();
+  private volatile boolean idleTimedOut = false;
+
+  Tunnel(SocketChannel client) {
+    this.client = client;
+  }
+
+  SocketChannel getClient() {
+    return client;
+  }
+
+  void setBackend(SocketChannel backend) {
+    this.backend = backend;
+  }
+
+  long getClientToBackendBytes() {
+    return clientToBackendBytes.get();
+  }
+
+  long getBackendToClientBytes() {
+    return backendToClientBytes.get();
+  }
+
+  long getLastActivityNanos() {
+    return lastActivityNanos;
+  }
+
+  boolean isIdleTimedOut() {
+    return idleTimedOut;
+  }
+
+  void touch() {
+    lastActivityNanos = System.nanoTime();
+  }
+
+  /**
+   * Relay from the client to the backend, call once the upgrade request has been written to the backend
+   * @param buffer direct buffer to relay through, left empty or holding bytes already read from the client in read mode
+   */
+  void pumpClientToBackend(ByteBuffer buffer) {
+    pump(client, backend, buffer, clientToBackendBytes);
+  }
+
+  /**
+   * Relay from the backend to the client
+   * @param buffer empty direct buffer in read mode to relay through
+   */
+  void pumpBackendToClient(ByteBuffer buffer) {
+    pump(backend, client, buffer, backendToClientBytes);
+  }
+
+  /**
+   * Close both connections because neither side sent anything within the idle timeout, this unblocks both pumps
+   */
+  void closeIdle() {
+    idleTimedOut = true;
+    close();
+  }
+
+  void close() {
+    closeQuietly(client);
+    closeQuietly(backend);
+  }
+
+  private void pump(SocketChannel source, SocketChannel destination, ByteBuffer buffer, AtomicLong counter) {
+    try {
+      while (true) {
+        while (buffer.hasRemaining()) {
+          counter.addAndGet(destination.write(buffer));
+        }
+        buffer.clear();
+        int read = source.read(buffer);
+        buffer.flip();
+        if (read == -1) {
+          // Pass the half close on, the other direction may still have data to deliver
+          destination.shutdownOutput();
+          return;
+        }
+        touch();
+      }
+    } catch (IOException ex) {
+      // Either side failing ends the whole tunnel
+      close();
+    }
+  }
+
+  private static void closeQuietly(SocketChannel channel) {
+    if (channel == null) {
+      return;
+    }
+    try {
+      channel.close();
+    } catch (IOException ex) {
+      // Already closed by the peer or the other pump
+    }
+  }
+
+}
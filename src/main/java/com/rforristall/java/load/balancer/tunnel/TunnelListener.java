@@ -0,0 +1,358 @@
+package com.rforristall.java.load.balancer.tunnel;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rforristall.java.load.balancer.backend.Backend;
+import com.rforristall.java.load.balancer.metrics.TunnelClosedEvent;
+import com.rforristall.java.load.balancer.routing.BackendPool;
+import com.rforristall.java.load.balancer.routing.RoutingTable;
+
+/**
+ * Listener for HTTP/1.1 upgrade requests such as WebSocket handshakes. The JDK HttpServer behind the main port
+ * never gives up the connection of an exchange, so upgraded traffic is accepted here on its own port where the
+ * load balancer owns the sockets. The request head is routed to a pool like any other request and forwarded to
+ * a backend picked by the pool's balancing strategy, from then on bytes are relayed in both directions untouched,
+ * whether or not the backend agreed to switch protocols.
+ * <p>
+ * Every open tunnel counts as an active connection of its backend for as long as it lasts, so long lived
+ * tunnels are weighed by least connections like any in flight request.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class TunnelListener {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(TunnelListener.class);
+
+  /**
+   * Size of the direct buffer used for each direction of a tunnel, also the largest request head accepted
+   */
+  private static final int BUFFER_SIZE = 16 * 1024;
+
+  /**
+   * Number of released buffers kept for reuse, allocating direct memory is slow so buffers outlive their tunnel
+   */
+  private static final int MAX_POOLED_BUFFERS = 1024;
+
+  private static final int CONNECT_TIMEOUT_MS = 5000;
+
+  /**
+   * How long a closed tunnel waits for its backend to client pump to stop before giving up on reusing its buffer
+   */
+  private static final int PUMP_STOP_TIMEOUT_MS = 1000;
+
+  private final ServerSocketChannel serverChannel;
+  private final RoutingTable routingTable;
+  private final long idleTimeoutNanos;
+  private final ScheduledExecutorService idleReaper;
+  private final Set<Tunnel> tunnels = ConcurrentHashMap.newKeySet();
+  private final ConcurrentLinkedQueue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<>();
+  private final AtomicLong acceptedConnections = new AtomicLong(0);
+  private final AtomicLong clientToBackendBytes = new AtomicLong(0);
+  private final AtomicLong backendToClientBytes = new AtomicLong(0);
+  private Thread acceptor;
+  private volatile boolean running = false;
+
+  /**
+   * @param address address to bind the listener to
+   * @param routingTable {@link RoutingTable} choosing the pool of each tunnel, the pool's strategy picks the backend and its retries apply when connecting fails
+   * @param idleTimeoutMs milliseconds without traffic in either direction after which a tunnel is closed
+   * @throws IOException if the address cannot be bound
+   */
+  public TunnelListener(InetSocketAddress address, RoutingTable routingTable, int idleTimeoutMs) throws IOException {
+    this.serverChannel = ServerSocketChannel.open();
+    this.serverChannel.socket().setReuseAddress(true);
+    this.serverChannel.bind(address);
+    this.routingTable = routingTable;
+    this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs);
+    this.idleReaper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "TunnelIdleReaper");
+        t.setDaemon(true);
+        return t;
+    });
+  }
+
+  public void start() {
+    running = true;
+    acceptor = new Thread(this::acceptConnections, "TunnelAcceptor");
+    acceptor.setDaemon(true);
+    acceptor.start();
+    long reapInterval = Math.max(1, Math.min(1000, TimeUnit.NANOSECONDS.toMillis(idleTimeoutNanos) / 2));
+    idleReaper.scheduleAtFixedRate(this::closeIdleTunnels, reapInterval, reapInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stop accepting connections and close every open tunnel
+   */
+  public void stop() {
+    running = false;
+    try {
+      serverChannel.close();
+    } catch (IOException ex) {
+      LOGGER.warn("Failed to close tunnel listener", ex);
+    }
+    idleReaper.shutdown();
+    for (Tunnel tunnel : tunnels) {
+      tunnel.close();
+    }
+  }
+
+  public int getPort() {
+    return serverChannel.socket().getLocalPort();
+  }
+
+  public long getAcceptedConnections() {
+    return acceptedConnections.get();
+  }
+
+  public int getOpenTunnels() {
+    return tunnels.size();
+  }
+
+  /**
+   * Get the bytes relayed from clients to backends by tunnels that have closed
+   * @return number of bytes
+   */
+  public long getClientToBackendBytes() {
+    return clientToBackendBytes.get();
+  }
+
+  /**
+   * Get the bytes relayed from backends to clients by tunnels that have closed
+   * @return number of bytes
+   */
+  public long getBackendToClientBytes() {
+    return backendToClientBytes.get();
+  }
+
+  private void acceptConnections() {
+    while (running) {
+      try {
+        SocketChannel client = serverChannel.accept();
+        acceptedConnections.incrementAndGet();
+        client.socket().setTcpNoDelay(true);
+        Thread.ofVirtual().name("Tunnel-" + client.getRemoteAddress()).start(() -> serve(client));
+      } catch (IOException ex) {
+        if (running) {
+          LOGGER.warn("Failed to accept tunnel connection", ex);
+        }
+      }
+    }
+  }
+
+  private void serve(SocketChannel client) {
+    Tunnel tunnel = new Tunnel(client);
+    tunnels.add(tunnel);
+    ByteBuffer upstream = acquireBuffer();
+    ByteBuffer downstream = null;
+    Thread backendToClient = null;
+    Backend backend = null;
+    String protocol = null;
+    TunnelClosedEvent event = new TunnelClosedEvent();
+    try {
+      int headLength = readHead(tunnel, upstream);
+      if (headLength == -1) {
+        return;
+      }
+      byte[] head = new byte[headLength];
+      upstream.get(head);
+      UpgradeRequest request;
+      try {
+        request = UpgradeRequest.parse(head);
+      } catch (IllegalArgumentException ex) {
+        sendError(client, 400, "Bad Request", "Malformed request");
+        return;
+      }
+      if (!request.isUpgrade()) {
+        sendError(client, 400, "Bad Request", "Only upgrade requests are served on this port");
+        return;
+      }
+      protocol = request.getProtocol();
+      backend = connectBackend(tunnel, request, route(request));
+      if (backend == null) {
+        sendError(client, 502, "Bad Gateway", "No backend accepted the connection");
+        return;
+      }
+      event.begin();
+      downstream = acquireBuffer();
+      downstream.flip();
+      ByteBuffer backendPump = downstream;
+      backendToClient = Thread.ofVirtual().name("TunnelDownstream-" + client.getRemoteAddress()).start(() -> tunnel.pumpBackendToClient(backendPump));
+      tunnel.pumpClientToBackend(upstream);
+      backendToClient.join();
+    } catch (IOException ex) {
+      LOGGER.debug("Tunnel from {} failed", client.socket().getRemoteSocketAddress(), ex);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    } finally {
+      tunnel.close();
+      tunnels.remove(tunnel);
+      releaseBuffer(upstream);
+      // Another tunnel must not be handed the downstream buffer while this tunnel's pump can still read into it or write from it
+      if (backendToClient == null || awaitPump(backendToClient)) {
+        releaseBuffer(downstream);
+      }
+      if (backend != null) {
+        backend.decrementActiveConnections();
+        clientToBackendBytes.addAndGet(tunnel.getClientToBackendBytes());
+        backendToClientBytes.addAndGet(tunnel.getBackendToClientBytes());
+        event.end();
+        if (event.shouldCommit()) {
+          event.backend = backend.getUrl();
+          event.protocol = protocol;
+          event.clientToBackendBytes = tunnel.getClientToBackendBytes();
+          event.backendToClientBytes = tunnel.getBackendToClientBytes();
+          event.idleTimeout = tunnel.isIdleTimedOut();
+          event.commit();
+        }
+      }
+    }
+  }
+
+  /**
+   * Read from the client until the request head is complete
+   * @return length of the head at the start of the buffer, which is left in read mode, or -1 if the client went away or sent too large a head
+   */
+  private int readHead(Tunnel tunnel, ByteBuffer buffer) throws IOException {
+    while (true) {
+      if (tunnel.getClient().read(buffer) == -1) {
+        return -1;
+      }
+      tunnel.touch();
+      buffer.flip();
+      int headLength = UpgradeRequest.findHeadEnd(buffer);
+      if (headLength != -1) {
+        return headLength;
+      }
+      if (buffer.limit() == buffer.capacity()) {
+        sendError(tunnel.getClient(), 431, "Request Header Fields Too Large", "Request head too large");
+        return -1;
+      }
+      buffer.position(buffer.limit());
+      buffer.limit(buffer.capacity());
+    }
+  }
+
+  private BackendPool route(UpgradeRequest request) {
+    String target = request.getTarget();
+    int query = target.indexOf('?');
+    String path = query != -1 ? target.substring(0, query) : target;
+    return routingTable.route(request.getHeader("Host"), request.getMethod(), path, request::getHeader);
+  }
+
+  /**
+   * Connect to a backend of the pool and send it the upgrade request, trying other backends of the pool when connecting fails
+   * @return the {@link Backend} the tunnel was opened to, its active connections already incremented, or null if none could be reached
+   */
+  private Backend connectBackend(Tunnel tunnel, UpgradeRequest request, BackendPool pool) {
+    List<Backend> triedBackends = new ArrayList<>();
+    Backend backend = pool.getStrategy().selectBackend();
+    while (backend != null && triedBackends.size() <= pool.getMaxRetries()) {
+      triedBackends.add(backend);
+      backend.incrementActiveConnections();
+      backend.incrementTotalRequests();
+      SocketChannel channel = null;
+      try {
+        URI uri = URI.create(backend.getUrl());
+        if (!"http".equalsIgnoreCase(uri.getScheme())) {
+          throw new IOException("Tunnels can only be opened to http backends");
+        }
+        int port = uri.getPort() != -1 ? uri.getPort() : 80;
+        channel = SocketChannel.open();
+        channel.socket().connect(new InetSocketAddress(uri.getHost(), port), CONNECT_TIMEOUT_MS);
+        channel.socket().setTcpNoDelay(true);
+        String path = uri.getRawPath() != null ? uri.getRawPath() : "";
+        ByteBuffer head = ByteBuffer.wrap(request.toBackendHead(path, uri.getRawAuthority()));
+        while (head.hasRemaining()) {
+          channel.write(head);
+        }
+        tunnel.setBackend(channel);
+        backend.resetConsecutiveFailures();
+        return backend;
+      } catch (IOException | IllegalArgumentException ex) {
+        LOGGER.debug("Failed to open tunnel to {}", backend.getUrl(), ex);
+        backend.decrementActiveConnections();
+        backend.incrementTotalErrors();
+        backend.incrementConsecutiveFailures();
+        if (channel != null) {
+          try {
+            channel.close();
+          } catch (IOException closeEx) {
+            // Nothing was relayed yet
+          }
+        }
+        backend = pool.getStrategy().selectBackend(triedBackends);
+      }
+    }
+    return null;
+  }
+
+  private void closeIdleTunnels() {
+    long now = System.nanoTime();
+    for (Tunnel tunnel : tunnels) {
+      if (now - tunnel.getLastActivityNanos() > idleTimeoutNanos) {
+        tunnel.closeIdle();
+      }
+    }
+  }
+
+  private void sendError(SocketChannel client, int status, String reason, String message) throws IOException {
+    String response = "HTTP/1.1 " + status + " " + reason + "\r\n"
+        + "Content-Type: text/plain; charset=UTF-8\r\n"
+        + "Content-Length: " + message.length() + "\r\n"
+        + "Connection: close\r\n\r\n"
+        + message;
+    ByteBuffer buffer = ByteBuffer.wrap(response.getBytes(StandardCharsets.UTF_8));
+    while (buffer.hasRemaining()) {
+      client.write(buffer);
+    }
+  }
+
+  /**
+   * Wait for a pump of a closed tunnel to stop, closing the tunnel unblocks its reads and writes
+   * @return true if the pump has stopped, false if it may still be using its buffer
+   */
+  private static boolean awaitPump(Thread pump) {
+    // The tunnel may be closing because this thread was interrupted, the flag is put back once the wait is over
+    boolean interrupted = Thread.interrupted();
+    try {
+      pump.join(PUMP_STOP_TIMEOUT_MS);
+    } catch (InterruptedException ex) {
+      interrupted = true;
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return !pump.isAlive();
+  }
+
+  private ByteBuffer acquireBuffer() {
+    ByteBuffer buffer = bufferPool.poll();
+    return buffer != null ? buffer.clear() : ByteBuffer.allocateDirect(BUFFER_SIZE);
+  }
+
+  private void releaseBuffer(ByteBuffer buffer) {
+    if (buffer != null && bufferPool.size() < MAX_POOLED_BUFFERS) {
+      bufferPool.offer(buffer);
+    }
+  }
+
+}
@@ -0,0 +1,137 @@
+package com.rforristall.java.load.balancer.tunnel;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import com.rforristall.java.load.balancer.routing.RequestPath;
+
+/**
+ * Head of an HTTP/1.1 request read off a raw client connection, parsed just far enough to tell whether it asks
+ * for a protocol upgrade and to rewrite it for the backend
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+final class UpgradeRequest {
+
+  private static final byte[] HEAD_END = {'\r', '\n', '\r', '\n'};
+
+  private final String method;
+  private final String target;
+  private final String version;
+  private final List<String[]> headers;
+
+  private UpgradeRequest(String method, String target, String version, List<String[]> headers) {
+    this.method = method;
+    this.target = target;
+    this.version = version;
+    this.headers = headers;
+  }
+
+  /**
+   * Find the end of the request head in the bytes read so far
+   * @param buffer buffer in read mode holding the start of the connection
+   * @return number of bytes up to and including the blank line ending the head, -1 if it has not arrived yet
+   */
+  static int findHeadEnd(ByteBuffer buffer) {
+    for (int i = buffer.position(); i + HEAD_END.length <= buffer.limit(); i++) {
+      if (buffer.get(i) == '\r' && buffer.get(i + 1) == '\n' && buffer.get(i + 2) == '\r' && buffer.get(i + 3) == '\n') {
+        return i + HEAD_END.length - buffer.position();
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Parse a request head
+   * @param head bytes of the head including the terminating blank line
+   * @return parsed {@link UpgradeRequest}
+   * @throws IllegalArgumentException if the request line or a header line is malformed
+   */
+  static UpgradeRequest parse(byte[] head) {
+    String[] lines = new String(head, StandardCharsets.ISO_8859_1).split("\r\n");
+    String[] requestLine = lines[0].split(" ");
+    if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+      throw new IllegalArgumentException("Malformed request line");
+    }
+    List<String[]> headers = new ArrayList<>();
+    for (int i = 1; i < lines.length && !lines[i].isEmpty(); i++) {
+      int colon = lines[i].indexOf(':');
+      if (colon <= 0) {
+        throw new IllegalArgumentException("Malformed header line");
+      }
+      headers.add(new String[] {lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim()});
+    }
+    // The target is canonicalized once here, so the tunnel is routed on the same path the backend is sent
+    return new UpgradeRequest(requestLine[0], RequestPath.canonicalizeTarget(requestLine[1]), requestLine[2], headers);
+  }
+
+  String getMethod() {
+    return method;
+  }
+
+  /**
+   * @return request target with its path in canonical form, see {@link RequestPath}
+   */
+  String getTarget() {
+    return target;
+  }
+
+  String getHeader(String name) {
+    for (String[] header : headers) {
+      if (header[0].equalsIgnoreCase(name)) {
+        return header[1];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Check if the request asks to switch protocols, an Upgrade header listed as a Connection option
+   * @return true if the request is an upgrade request
+   */
+  boolean isUpgrade() {
+    String upgrade = getHeader("Upgrade");
+    String connection = getHeader("Connection");
+    if (upgrade == null || upgrade.isEmpty() || connection == null) {
+      return false;
+    }
+    for (String option : connection.split(",")) {
+      if (option.trim().equalsIgnoreCase("upgrade")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Get the protocol the client asked to upgrade to
+   * @return value of the Upgrade header in lower case
+   */
+  String getProtocol() {
+    String upgrade = getHeader("Upgrade");
+    return upgrade != null ? upgrade.toLowerCase(Locale.ROOT) : null;
+  }
+
+  /**
+   * Render the head to send to the backend, with the target prefixed by the backend path and Host set to the backend
+   * @param backendPath path of the backend URL, empty if it has none
+   * @param backendHost authority of the backend URL
+   * @return encoded request head
+   */
+  byte[] toBackendHead(String backendPath, String backendHost) {
+    StringBuilder head = new StringBuilder(256);
+    head.append(method).append(' ').append(backendPath).append(target).append(' ').append(version).append("\r\n");
+    head.append("Host: ").append(backendHost).append("\r\n");
+    for (String[] header : headers) {
+      if (!header[0].equalsIgnoreCase("Host")) {
+        head.append(header[0]).append(": ").append(header[1]).append("\r\n");
+      }
+    }
+    head.append("\r\n");
+    return head.toString().getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+}
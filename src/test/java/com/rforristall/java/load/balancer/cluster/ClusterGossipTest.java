@@ -0,0 +1,160 @@
+package com.rforristall.java.load.balancer.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.rforristall.java.load.balancer.backend.AbstractBackend;
+import com.rforristall.java.load.balancer.backend.Backend;
+
+/**
+ * Runs several gossip instances on loopback, each with its own copies of the same backends as separate load
+ * balancers would have
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+class ClusterGossipTest {
+
+  private static final int BACKENDS = 12;
+  private static final int INTERVAL_MS = 50;
+  private static final int MEMBER_TIMEOUT_MS = 500;
+  private static final long CONVERGE_TIMEOUT_MS = 5000;
+
+  private final List<ClusterGossip> gossips = new ArrayList<>();
+  private final List<List<Backend>> backends = new ArrayList<>();
+
+  @AfterEach
+  void stopGossips() {
+    for (ClusterGossip gossip : gossips) {
+      gossip.stop();
+    }
+  }
+
+  @Test
+  void membersConvergeFromOneSeed() throws Exception {
+    startCluster(3);
+
+    assertTrue(await(() -> gossips.stream().allMatch(gossip -> gossip.getLiveMembers() == 3)),
+        "members did not all learn of each other through the seed");
+  }
+
+  @Test
+  void eachBackendIsProbedByExactlyOneMember() throws Exception {
+    startCluster(3);
+    assertTrue(await(() -> gossips.stream().allMatch(gossip -> gossip.getLiveMembers() == 3)));
+
+    assertProbedOnce(gossips);
+    int[] owned = new int[gossips.size()];
+    for (int i = 0; i < BACKENDS; i++) {
+      for (int member = 0; member < gossips.size(); member++) {
+        if (gossips.get(member).isProbedLocally(backends.get(member).get(i))) {
+          owned[member]++;
+        }
+      }
+    }
+    for (int member = 0; member < owned.length; member++) {
+      assertTrue(owned[member] > 0, "member " + member + " probes none of the backends");
+    }
+  }
+
+  @Test
+  void memberDropsOutAfterTimeout() throws Exception {
+    startCluster(3);
+    assertTrue(await(() -> gossips.stream().allMatch(gossip -> gossip.getLiveMembers() == 3)));
+
+    ClusterGossip departed = gossips.remove(2);
+    backends.remove(2);
+    long stoppedAt = System.nanoTime();
+    departed.stop();
+
+    assertTrue(await(() -> gossips.stream().allMatch(gossip -> gossip.getLiveMembers() == 2)),
+        "the stopped member was not expired by the survivors");
+    assertTrue(System.nanoTime() - stoppedAt >= MEMBER_TIMEOUT_MS * 1_000_000L / 2,
+        "the stopped member expired well before the member timeout");
+    // The backends the departed member probed are taken over by the survivors
+    assertProbedOnce(gossips);
+  }
+
+  @Test
+  void activeConnectionsAreSharedAcrossMembers() throws Exception {
+    startCluster(2);
+    assertTrue(await(() -> gossips.stream().allMatch(gossip -> gossip.getLiveMembers() == 2)));
+
+    Backend local = backends.get(0).get(0);
+    local.incrementActiveConnections();
+    local.incrementActiveConnections();
+    Backend remote = backends.get(1).get(0);
+
+    assertTrue(await(() -> remote.getClusterActiveConnections() == 2), "connections opened on one member were not reported to the other");
+    assertEquals(0, remote.getActiveConnections());
+  }
+
+  /**
+   * Start the members, every member but the first only knows the first as its seed
+   */
+  private void startCluster(int members) throws IOException {
+    InetSocketAddress seed = null;
+    for (int member = 0; member < members; member++) {
+      List<Backend> memberBackends = new ArrayList<>();
+      for (int i = 0; i < BACKENDS; i++) {
+        memberBackends.add(new TestBackend("http://backend-" + i + ".test:8080"));
+      }
+      ClusterGossip gossip = new ClusterGossip(new InetSocketAddress("127.0.0.1", 0), seed != null ? List.of(seed) : List.of(), memberBackends,
+          INTERVAL_MS, MEMBER_TIMEOUT_MS);
+      if (seed == null) {
+        seed = new InetSocketAddress("127.0.0.1", gossip.getPort());
+      }
+      backends.add(memberBackends);
+      gossips.add(gossip);
+    }
+    for (ClusterGossip gossip : gossips) {
+      gossip.start();
+    }
+  }
+
+  private void assertProbedOnce(List<ClusterGossip> members) {
+    for (int i = 0; i < BACKENDS; i++) {
+      int probers = 0;
+      for (int member = 0; member < members.size(); member++) {
+        if (members.get(member).isProbedLocally(backends.get(member).get(i))) {
+          probers++;
+        }
+      }
+      assertEquals(1, probers, "backend " + i + " is probed by " + probers + " members");
+    }
+  }
+
+  private static boolean await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + CONVERGE_TIMEOUT_MS * 1_000_000L;
+    while (System.nanoTime() < deadline) {
+      if (condition.getAsBoolean()) {
+        return true;
+      }
+      Thread.sleep(INTERVAL_MS / 2);
+    }
+    return condition.getAsBoolean();
+  }
+
+  private static final class TestBackend extends AbstractBackend {
+
+    private TestBackend(String url) {
+      super(url, "/health");
+    }
+
+    @Override
+    public void runHealthCheck(HttpClient httpClient) {
+      // Ownership is all these tests look at, no backend is ever probed
+    }
+
+  }
+
+}
@@ -0,0 +1,60 @@
+package com.rforristall.java.load.balancer.simulation;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+class ArrivalTraceTest {
+
+  @TempDir
+  Path directory;
+
+  @Test
+  void accessLogArrivalsAreTimestampLessTotalTime() throws IOException {
+    // The slow request was logged last but arrived first
+    Path accessLog = write(
+        line("2026-03-01T12:00:00.300Z", 100_000),
+        line("2026-03-01T12:00:00.500Z", 450_000),
+        "",
+        line("2026-03-01T12:00:01.000Z", 0));
+
+    assertArrayEquals(new long[] {0, 150_000_000, 950_000_000}, arrivalsOf(ArrivalTrace.fromAccessLog(accessLog)));
+  }
+
+  @Test
+  void accessLogLineWithoutTotalTimeIsRejected() throws IOException {
+    Path accessLog = write("2026-03-01T12:00:00.300Z 127.0.0.1 \"GET /\" 200 req=0 resp=2 backend=-");
+
+    assertThrows(IllegalArgumentException.class, () -> ArrivalTrace.fromAccessLog(accessLog));
+  }
+
+  /**
+   * Access log line in the format the load balancer writes
+   */
+  private static String line(String timestamp, long totalMicros) {
+    return timestamp + " 127.0.0.1 \"GET /api\" 200 req=0 resp=2 backend=http://localhost:9001 total_us=" + totalMicros
+        + " select_us=3 queue_us=0 read_us=1 ttfb_us=" + totalMicros / 2 + " upstream_body_us=5 write_us=7";
+  }
+
+  private static long[] arrivalsOf(ArrivalTrace trace) {
+    LongStream.Builder arrivals = LongStream.builder();
+    trace.arrivals().forEachRemaining((long arrival) -> arrivals.add(arrival));
+    return arrivals.build().toArray();
+  }
+
+  private Path write(String... lines) throws IOException {
+    return Files.write(directory.resolve("access.log"), List.of(lines));
+  }
+
+}
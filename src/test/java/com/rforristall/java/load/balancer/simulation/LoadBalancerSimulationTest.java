@@ -0,0 +1,114 @@
+package com.rforristall.java.load.balancer.simulation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.rforristall.java.load.balancer.strategy.BalancingStrategies;
+
+/**
+ * Checks the simulation is reproducible and agrees with queueing theory where the theory has a closed form
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+class LoadBalancerSimulationTest {
+
+  private static final double SERVICE_MS = 10;
+
+  @Test
+  void sameSeedGivesSameReport() {
+    for (BalancingStrategies strategy : BalancingStrategies.values()) {
+      SimulationReport first = noisySimulation(42).run(strategy);
+      SimulationReport second = noisySimulation(42).run(strategy);
+
+      assertSameReport(first, second);
+    }
+    assertNotEquals(noisySimulation(42).run(BalancingStrategies.ROUND_ROBIN).getP99Nanos(),
+        noisySimulation(43).run(BalancingStrategies.ROUND_ROBIN).getP99Nanos(), "the seed does not change the backends' random streams");
+  }
+
+  /**
+   * A single backend serving one request at a time in constant time under Poisson arrivals is an M/D/1 queue,
+   * whose waiting time distribution is known exactly
+   */
+  @Test
+  void singleConstantTimeBackendMatchesMD1() {
+    double utilization = 0.8;
+    double arrivalsPerSecond = utilization * 1000 / SERVICE_MS;
+    SimulationReport report = new LoadBalancerSimulation.LoadBalancerSimulationBuilder()
+        .backends(List.of(SimulatedBackendProfile.builder("only").serviceTime(ServiceTimeDistribution.constant(SERVICE_MS)).concurrency(1).build()))
+        .strategies(List.of(BalancingStrategies.ROUND_ROBIN))
+        .arrivals(ArrivalTrace.poisson(arrivalsPerSecond, 500_000, 7))
+        .healthCheckInterval(0)
+        .build()
+        .run(BalancingStrategies.ROUND_ROBIN);
+
+    double expectedP50Ms = SERVICE_MS + medianWaitMs(arrivalsPerSecond / 1000, SERVICE_MS);
+    // Pollaczek-Khinchine mean wait of M/D/1
+    double expectedMeanMs = SERVICE_MS + utilization * SERVICE_MS / (2 * (1 - utilization));
+    assertEquals(500_000, report.getSucceeded());
+    assertEquals(expectedP50Ms, report.getP50Nanos() / 1e6, expectedP50Ms * 0.03, "p50 latency");
+    assertEquals(expectedMeanMs, report.getMeanNanos() / 1e6, expectedMeanMs * 0.03, "mean latency");
+  }
+
+  /**
+   * Median wait of an M/D/1 queue found by bisection on Erlang's waiting time distribution
+   * P(W <= t) = (1 - rho) * sum over k <= t / D of (lambda (k D - t))^k / k! * e^(-lambda (k D - t))
+   */
+  private static double medianWaitMs(double arrivalsPerMs, double serviceMs) {
+    double low = 0;
+    double high = 10 * serviceMs;
+    for (int i = 0; i < 60; i++) {
+      double t = (low + high) / 2;
+      double cumulative = 0;
+      double factorial = 1;
+      for (int k = 0; k * serviceMs <= t; k++) {
+        factorial *= Math.max(1, k);
+        double x = arrivalsPerMs * (k * serviceMs - t);
+        cumulative += Math.pow(x, k) / factorial * Math.exp(-x);
+      }
+      cumulative *= 1 - arrivalsPerMs * serviceMs;
+      if (cumulative < 0.5) {
+        low = t;
+      } else {
+        high = t;
+      }
+    }
+    return (low + high) / 2;
+  }
+
+  /**
+   * Backends with random service times, failures and pauses, so every random stream of a run is drawn from
+   */
+  private static LoadBalancerSimulation noisySimulation(long seed) {
+    return new LoadBalancerSimulation.LoadBalancerSimulationBuilder()
+        .backends(List.of(
+            SimulatedBackendProfile.builder("fast").serviceTime(ServiceTimeDistribution.exponential(5)).concurrency(4).failures(0.02, 2).build(),
+            SimulatedBackendProfile.builder("slow").serviceTime(ServiceTimeDistribution.logNormal(8, 1)).concurrency(4).build(),
+            SimulatedBackendProfile.builder("pausing").serviceTime(ServiceTimeDistribution.exponential(5)).concurrency(4)
+                .gcPauses(500, ServiceTimeDistribution.constant(40)).build()))
+        .arrivals(ArrivalTrace.poisson(1000, 50_000, seed))
+        .healthCheckInterval(100)
+        .seed(seed)
+        .build();
+  }
+
+  private static void assertSameReport(SimulationReport expected, SimulationReport actual) {
+    assertEquals(expected.getRequests(), actual.getRequests());
+    assertEquals(expected.getRejected(), actual.getRejected());
+    assertEquals(expected.getFailed(), actual.getFailed());
+    assertEquals(expected.getRetries(), actual.getRetries());
+    assertEquals(expected.getP50Nanos(), actual.getP50Nanos());
+    assertEquals(expected.getP99Nanos(), actual.getP99Nanos());
+    assertEquals(expected.getP999Nanos(), actual.getP999Nanos());
+    assertEquals(expected.getMaxNanos(), actual.getMaxNanos());
+    assertEquals(expected.getMeanNanos(), actual.getMeanNanos());
+    assertEquals(expected.getSimulatedNanos(), actual.getSimulatedNanos());
+    assertEquals(expected.getEvents(), actual.getEvents());
+    assertEquals(expected.getBackendLoads().toString(), actual.getBackendLoads().toString());
+  }
+
+}